@@ -0,0 +1,106 @@
+package com.element54.sorter.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.mpatric.mp3agic.AbstractID3v2Tag;
+import com.mpatric.mp3agic.ID3v23Tag;
+import com.mpatric.mp3agic.ID3v24Frame;
+import com.mpatric.mp3agic.ID3v24Tag;
+import com.mpatric.mp3agic.ID3v2Frame;
+import com.mpatric.mp3agic.ID3v2FrameSet;
+import com.mpatric.mp3agic.NotSupportedException;
+
+// Synthesizes small but valid MP3 files (ID3v2 tag followed by silent MPEG-1
+// layer III frames), so benchmarks need no audio files on disk.
+public class Mp3Fixtures {
+    private static final int FRAME_LENGTH = 417;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: Mp3Fixtures <folder> <count>");
+            System.exit(1);
+        }
+        final Path folder = Paths.get(args[0]);
+        final int count = Integer.parseInt(args[1]);
+        for (int i = 0; i < count; i++) {
+            final Path file = folder.resolve(String.format("%03d/%05d.mp3", i / 100, i));
+            Files.createDirectories(file.getParent());
+            final AbstractID3v2Tag tag = createTag(i % 2 == 0 ? 4 : 3, i % 10 == 0, i % 25 == 0);
+            tag.setAlbumArtist("Artist " + i / 100);
+            tag.setAlbum("Album " + i / 15);
+            tag.setTrack(Integer.toString(i % 15 + 1));
+            tag.setTitle("Title " + i);
+            write(file, tag, 100);
+        }
+    }
+
+    public static AbstractID3v2Tag createTag(final int version, final boolean large, final boolean art) {
+        final AbstractID3v2Tag tag = version == 4 ? new ID3v24Tag() : new ID3v23Tag();
+        tag.setArtist("The Artist");
+        tag.setAlbumArtist("The Album Artist");
+        tag.setAlbum("Some Album (Deluxe Edition)");
+        tag.setTitle("A Title - Live");
+        tag.setYear("2004");
+        tag.setTrack("7/12");
+        tag.setPartOfSet("1/2");
+        if (large) {
+            tag.setComment(repeat("comment ", 200));
+            tag.setLyrics(repeat("la la la ", 500));
+            for (int i = 0; i < 30; i++) {
+                addCustom(tag, "CUSTOM" + i, "value " + i);
+            }
+        }
+        addCustom(tag, "COMPILATIONGROUP", "Soundtracks");
+        if (art) {
+            tag.setAlbumImage(new byte[256 * 1024], "image/jpeg");
+        }
+        tag.setPadding(true);
+        return tag;
+    }
+
+    public static void addCustom(final AbstractID3v2Tag tag, final String key, final String value) {
+        final byte[] k = key.getBytes(StandardCharsets.ISO_8859_1);
+        final byte[] v = value.getBytes(StandardCharsets.ISO_8859_1);
+        final byte[] data = new byte[k.length + v.length + 3];
+        System.arraycopy(k, 0, data, 1, k.length);
+        System.arraycopy(v, 0, data, k.length + 2, v.length);
+        final ID3v2Frame frame = tag instanceof ID3v24Tag ? new ID3v24Frame("TXXX", data)
+                : new ID3v2Frame("TXXX", data);
+        tag.getFrameSets().computeIfAbsent("TXXX", ID3v2FrameSet::new).addFrame(frame);
+    }
+
+    public static void write(final Path file, final AbstractID3v2Tag tag, final int frames) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            out.write(tag.toBytes());
+            out.write(audio(frames));
+        } catch (final NotSupportedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public static byte[] audio(final int frames) {
+        final byte[] data = new byte[FRAME_LENGTH * frames];
+        for (int i = 0; i < frames; i++) {
+            // MPEG-1 layer III, 128 kbit/s, 44.1 kHz, no padding, no crc
+            final int o = i * FRAME_LENGTH;
+            data[o] = (byte) 0xff;
+            data[o + 1] = (byte) 0xfb;
+            data[o + 2] = (byte) 0x90;
+            data[o + 3] = (byte) 0x00;
+        }
+        return data;
+    }
+
+    private static String repeat(final String s, final int n) {
+        final StringBuilder b = new StringBuilder(s.length() * n);
+        for (int i = 0; i < n; i++) {
+            b.append(s);
+        }
+        return b.toString();
+    }
+}
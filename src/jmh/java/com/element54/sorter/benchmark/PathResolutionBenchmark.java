@@ -0,0 +1,78 @@
+package com.element54.sorter.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.element54.sorter.SorterService;
+import com.element54.sorter.SorterServiceException;
+import com.element54.sorter.StructuredSorterService;
+import com.element54.sorter.layout.Layout;
+import com.element54.sorter.layout.TemplateSorterService;
+import com.element54.sorter.tags.AudioTag;
+import com.element54.sorter.tags.impl.BasicAudioTag;
+import com.element54.utils.file.FileNameCleaner;
+import com.element54.utils.file.FilteredFileNameCleaner;
+import com.element54.utils.string.FilteredStringCleaner;
+
+// Tags are served from memory so only the layout and name cleaning is measured.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathResolutionBenchmark {
+
+    @Param({ "audiobook", "compilation", "single", "default" })
+    public String branch;
+
+    @Param({ "structured", "template" })
+    public String service;
+
+    private final Path file = Paths.get("in/track.mp3");
+    private final Path dest = Paths.get("out");
+    private SorterService sorterService;
+
+    @Setup
+    public void setup() {
+        final Map<String, String> customs = new HashMap<>();
+        boolean compilation = false;
+        if ("audiobook".equals(this.branch)) {
+            customs.put("AUDIOBOOK", "1");
+        } else if ("compilation".equals(this.branch)) {
+            compilation = true;
+            customs.put("COMPILATIONGROUP", "Soundtracks");
+        } else if ("single".equals(this.branch)) {
+            customs.put("SINGLE", "1");
+        }
+        final AudioTag tag = new BasicAudioTag(this.file, "Motörhead", "Motörhead", "Ace of Spades (Deluxe)",
+                "The Chase Is Better Than the Catch", 1980, 7, 1, compilation, customs);
+        final FileNameCleaner cleaner = new FilteredFileNameCleaner(new FilteredStringCleaner(30));
+        if ("template".equals(this.service)) {
+            this.sorterService = new TemplateSorterService(f -> tag, cleaner, Layout.parse(Layout.DEFAULT));
+        } else {
+            this.sorterService = new StructuredSorterService(f -> tag, cleaner);
+        }
+    }
+
+    @Benchmark
+    public Path getFile() throws SorterServiceException, IOException {
+        return this.sorterService.getFile(this.file, this.dest);
+    }
+}
@@ -0,0 +1,36 @@
+package com.element54.sorter.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.element54.utils.string.FilteredStringCleaner;
+import com.element54.utils.string.StringCleaner;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringCleanerBenchmark {
+
+    @Param({ "Ace of Spades", "Björk - Début (Deluxe Edition) / Disc 1", "東京事変 - 大人 (アダルト)" })
+    public String name;
+
+    private final StringCleaner cleaner = new FilteredStringCleaner(30);
+
+    @Benchmark
+    public String purge() {
+        return this.cleaner.purge(this.name);
+    }
+}
@@ -0,0 +1,66 @@
+package com.element54.sorter.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.element54.sorter.tags.AudioTag;
+import com.element54.sorter.tags.AudioTagService;
+import com.element54.sorter.tags.impl.ID3v2HeaderTagService;
+import com.element54.sorter.tags.impl.MP3agicTagService;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TagReadBenchmark {
+
+    @Param({ "mp3agic", "header" })
+    public String reader;
+
+    @Param({ "3", "4" })
+    public int version;
+
+    @Param({ "small", "large" })
+    public String tagSize;
+
+    @Param({ "false", "true" })
+    public boolean art;
+
+    private Path file;
+    private AudioTagService service;
+
+    @Setup
+    public void setup() throws IOException {
+        this.file = Files.createTempFile("bench", ".mp3");
+        Mp3Fixtures.write(this.file, Mp3Fixtures.createTag(this.version, "large".equals(this.tagSize), this.art),
+                2000);
+        this.service = "header".equals(this.reader) ? new ID3v2HeaderTagService() : new MP3agicTagService();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.file);
+    }
+
+    @Benchmark
+    public AudioTag readTag() throws IOException {
+        return this.service.readTag(this.file);
+    }
+}
@@ -0,0 +1,347 @@
+package com.element54.sorter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.element54.sorter.tags.AudioTag;
+import com.element54.sorter.tags.impl.BasicAudioTag;
+import com.element54.utils.file.PathTrie;
+import com.element54.utils.file.PathUtils;
+
+// Entries in memory are pairs of node ids into a PathTrie, which stores the
+// folders shared by many sources and destinations once. Entries beyond the
+// in-memory budget are appended to a temporary spill file in the plan file
+// encoding and streamed back by getEntries, so a plan of any size holds at
+// most maxEntries entries on the heap. The tags of the entries are kept only
+// while they are in memory; spilled entries and plan files carry none.
+public class MovePlan implements Closeable {
+    public static final int DEFAULT_MAX_ENTRIES = 65536;
+
+    private static final int MAGIC = 0x4d53504c;
+    private static final int VERSION = 1;
+    private static final byte ENTRY_MOVE = 1;
+    private static final byte ENTRY_FAILED = 2;
+    private static final int END = 0xffff;
+
+    // front coding state of one stream of entries; the spill file stores
+    // PathUtils names, which keep names invalid in the platform encoding
+    // intact
+    private static final class Coder {
+        private final Path file;
+        private final boolean spill;
+        private String lastSource = "";
+        private String lastDest = "";
+
+        Coder(final Path file, final boolean spill) {
+            this.file = file;
+            this.spill = spill;
+        }
+
+        private String encode(final Path path) {
+            return this.spill ? PathUtils.toName(path) : path.toAbsolutePath().toString();
+        }
+
+        private Path decode(final String path) {
+            return this.spill ? PathUtils.toPath(path) : Paths.get(path);
+        }
+
+        void write(final DataOutputStream out, final SortEntry entry) throws IOException {
+            final String source = encode(entry.getSource());
+            writeFrontCoded(out, this.lastSource, source);
+            this.lastSource = source;
+            if (entry.isFailed()) {
+                out.writeByte(ENTRY_FAILED);
+                out.writeUTF(entry.getError() == null ? "" : entry.getError());
+            } else {
+                out.writeByte(ENTRY_MOVE);
+                final String dest = encode(entry.getDest());
+                writeFrontCoded(out, this.lastDest, dest);
+                this.lastDest = dest;
+            }
+        }
+
+        // null at the end marker
+        SortEntry read(final DataInputStream in) throws IOException {
+            final int shared = in.readUnsignedShort();
+            if (shared == END) {
+                return null;
+            }
+            final String source = this.lastSource.substring(0, shared) + in.readUTF();
+            this.lastSource = source;
+            final byte type = in.readByte();
+            if (type == ENTRY_FAILED) {
+                return new SortEntry(decode(source), null, in.readUTF());
+            } else if (type == ENTRY_MOVE) {
+                final String dest = readFrontCoded(in, this.lastDest);
+                this.lastDest = dest;
+                return new SortEntry(decode(source), decode(dest), null);
+            }
+            throw new IOException(this.file == null ? "corrupt plan" : "corrupt plan file " + this.file);
+        }
+    }
+
+    private final int maxEntries;
+    private final PathTrie paths = new PathTrie();
+    private int[] sources = new int[64];
+    private int[] dests = new int[64];
+    private final Map<Integer, String> errors = new HashMap<>();
+    private final Map<Integer, AudioTag> tags = new HashMap<>();
+    private int count = 0;
+    private Path spill = null;
+    private DataOutputStream spillOut = null;
+    private Coder spillCoder = null;
+    private int spilled = 0;
+
+    public MovePlan() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public MovePlan(final int maxEntries) {
+        super();
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    public void add(final SortEntry entry) throws IOException {
+        if (this.count == this.sources.length) {
+            this.sources = Arrays.copyOf(this.sources, this.count * 2);
+            this.dests = Arrays.copyOf(this.dests, this.count * 2);
+        }
+        this.sources[this.count] = this.paths.intern(entry.getSource());
+        if (entry.isFailed()) {
+            this.dests[this.count] = PathTrie.NONE;
+            this.errors.put(this.count, entry.getError());
+        } else {
+            this.dests[this.count] = this.paths.intern(entry.getDest());
+            if (entry.getTag() != null) {
+                this.tags.put(this.count, BasicAudioTag.copyOf(entry.getTag()));
+            }
+        }
+        this.count++;
+        if (this.count >= this.maxEntries) {
+            spill();
+        }
+    }
+
+    // in plan order, with absolute paths; entries spilled to disk are read
+    // back while iterating
+    public Iterable<SortEntry> getEntries() {
+        if (this.spill == null) {
+            return () -> memoryIterator();
+        }
+        return () -> new SpillIterator();
+    }
+
+    public int getMaxEntries() {
+        return this.maxEntries;
+    }
+
+    public int size() {
+        return this.spilled + this.count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        clearMemory();
+        if (this.spill != null) {
+            this.spillOut.close();
+            Files.deleteIfExists(this.spill);
+            this.spill = null;
+            this.spilled = 0;
+        }
+    }
+
+    private void spill() throws IOException {
+        if (this.spill == null) {
+            this.spill = Files.createTempFile("mediasorter-", ".plan");
+            this.spill.toFile().deleteOnExit();
+            this.spillOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(this.spill)));
+            this.spillCoder = new Coder(this.spill, true);
+        }
+        for (int i = 0; i < this.count; i++) {
+            this.spillCoder.write(this.spillOut, entry(i));
+        }
+        this.spillOut.flush();
+        this.spilled += this.count;
+        clearMemory();
+    }
+
+    private void clearMemory() {
+        this.paths.clear();
+        this.errors.clear();
+        this.tags.clear();
+        this.count = 0;
+    }
+
+    private SortEntry entry(final int index) {
+        final int dest = this.dests[index];
+        return new SortEntry(this.paths.toPath(this.sources[index]),
+                dest == PathTrie.NONE ? null : this.paths.toPath(dest), this.errors.get(index),
+                this.tags.get(index));
+    }
+
+    private Iterator<SortEntry> memoryIterator() {
+        return new Iterator<SortEntry>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return this.next < MovePlan.this.count;
+            }
+
+            @Override
+            public SortEntry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return entry(this.next++);
+            }
+        };
+    }
+
+    private final class SpillIterator implements Iterator<SortEntry> {
+        private final int count = MovePlan.this.spilled;
+        private final Coder coder = new Coder(MovePlan.this.spill, true);
+        private DataInputStream in;
+        private int read = 0;
+        private Iterator<SortEntry> tail = null;
+
+        SpillIterator() {
+            try {
+                this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(MovePlan.this.spill)));
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.read < this.count) {
+                return true;
+            }
+            if (this.tail == null) {
+                closeSpill();
+                this.tail = memoryIterator();
+            }
+            return this.tail.hasNext();
+        }
+
+        @Override
+        public SortEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (this.tail != null) {
+                return this.tail.next();
+            }
+            try {
+                final SortEntry entry = this.coder.read(this.in);
+                if (entry == null) {
+                    throw new IOException("truncated plan spill file " + MovePlan.this.spill);
+                }
+                this.read++;
+                return entry;
+            } catch (final IOException e) {
+                closeSpill();
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void closeSpill() {
+            try {
+                this.in.close();
+            } catch (final IOException e) {
+                // read only
+            }
+        }
+    }
+
+    // Paths are stored absolute and front coded against the previous entry,
+    // which shares most of its folders in a sorted plan.
+    public void write(final Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(file))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            write(out);
+        }
+    }
+
+    // the entries and the end marker, without the file header
+    public void write(final DataOutputStream out) throws IOException {
+        final Coder coder = new Coder(null, false);
+        for (final SortEntry entry : getEntries()) {
+            coder.write(out, entry);
+        }
+        out.writeShort(END);
+    }
+
+    public static MovePlan read(final Path file) throws IOException {
+        return read(file, DEFAULT_MAX_ENTRIES);
+    }
+
+    public static MovePlan read(final Path file, final int maxEntries) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a plan file " + file);
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported plan version " + version);
+            }
+            return read(in, maxEntries, file);
+        }
+    }
+
+    // reads entries up to the end marker, as written by write(DataOutputStream)
+    public static MovePlan read(final DataInputStream in, final int maxEntries) throws IOException {
+        return read(in, maxEntries, null);
+    }
+
+    private static MovePlan read(final DataInputStream in, final int maxEntries, final Path file)
+            throws IOException {
+        final MovePlan plan = new MovePlan(maxEntries);
+        try {
+            final Coder coder = new Coder(file, false);
+            SortEntry entry;
+            while ((entry = coder.read(in)) != null) {
+                plan.add(entry);
+            }
+        } catch (final IOException e) {
+            plan.close();
+            throw e;
+        }
+        return plan;
+    }
+
+    private static void writeFrontCoded(final DataOutputStream out, final String last, final String value)
+            throws IOException {
+        final int max = Math.min(Math.min(last.length(), value.length()), END - 1);
+        int shared = 0;
+        while (shared < max && last.charAt(shared) == value.charAt(shared)) {
+            shared++;
+        }
+        out.writeShort(shared);
+        out.writeUTF(value.substring(shared));
+    }
+
+    private static String readFrontCoded(final DataInputStream in, final String last) throws IOException {
+        final int shared = in.readUnsignedShort();
+        return last.substring(0, shared) + in.readUTF();
+    }
+}
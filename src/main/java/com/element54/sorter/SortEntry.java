@@ -0,0 +1,46 @@
+package com.element54.sorter;
+
+import java.nio.file.Path;
+
+import com.element54.sorter.tags.AudioTag;
+
+public class SortEntry {
+
+    private final Path source;
+    private final Path dest;
+    private final String error;
+    private final AudioTag tag;
+
+    public SortEntry(final Path source, final Path dest, final String error) {
+        this(source, dest, error, null);
+    }
+
+    // tag: the tag the destination was computed from, null if not known
+    public SortEntry(final Path source, final Path dest, final String error, final AudioTag tag) {
+        super();
+        this.source = source;
+        this.dest = dest;
+        this.error = error;
+        this.tag = tag;
+    }
+
+    public Path getSource() {
+        return this.source;
+    }
+
+    public Path getDest() {
+        return this.dest;
+    }
+
+    public String getError() {
+        return this.error;
+    }
+
+    public AudioTag getTag() {
+        return this.tag;
+    }
+
+    public boolean isFailed() {
+        return this.dest == null;
+    }
+}
@@ -0,0 +1,216 @@
+package com.element54.sorter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import com.element54.utils.concurrent.DeviceScheduler;
+import com.element54.utils.concurrent.Workers;
+import com.element54.utils.file.DiskLocator;
+import com.element54.utils.file.FileWalker;
+import com.element54.utils.file.PathUtils;
+
+public class SortPipeline {
+
+    public interface Handler {
+        public void handle(SortEntry entry) throws IOException;
+    }
+
+    private static final Future<SortEntry> END = CompletableFuture.completedFuture(null);
+    private static final int BATCH = 256;
+
+    private final SorterService sorterService;
+    private final int threads;
+    private final FileWalker walker;
+    private final boolean virtualThreads;
+    private final Semaphore open;
+    private final int readsPerDevice;
+    private final DiskLocator locator = new DiskLocator();
+
+    public SortPipeline(final SorterService sorterService, final int threads, final FileWalker walker) {
+        this(sorterService, threads, walker, false);
+    }
+
+    public SortPipeline(final SorterService sorterService, final int threads, final FileWalker walker,
+            final boolean virtualThreads) {
+        this(sorterService, threads, walker, virtualThreads, 0);
+    }
+
+    // virtualThreads: one virtual thread per file, at most threads files open;
+    // readsPerDevice: if set, tags are read by a separate queue per device
+    // with that many reads at once instead of by the shared workers, and the
+    // files of each folder are read in inode order. The output keeps the walk
+    // order through one window of threads * 64 files, so a file on a slow
+    // device holds back the output and, once the window is full, the reads
+    // of every device behind it.
+    public SortPipeline(final SorterService sorterService, final int threads, final FileWalker walker,
+            final boolean virtualThreads, final int readsPerDevice) {
+        super();
+        this.sorterService = sorterService;
+        this.threads = Math.max(1, threads);
+        this.walker = walker;
+        this.virtualThreads = virtualThreads;
+        this.open = new Semaphore(this.threads);
+        this.readsPerDevice = readsPerDevice;
+    }
+
+    public void run(final Path in, final Path out, final Handler handler) throws IOException {
+        run(in, Integer.MAX_VALUE, out, handler);
+    }
+
+    // maxDepth 1 sorts the files of in only
+    public void run(final Path in, final int maxDepth, final Path out, final Handler handler) throws IOException {
+        final BlockingQueue<Future<SortEntry>> queue = new ArrayBlockingQueue<>(this.threads * 64);
+        final ExecutorService workers = this.readsPerDevice > 0 ? null
+                : Workers.create(this.threads, this.virtualThreads);
+        final DeviceScheduler scheduler = this.readsPerDevice > 0
+                ? new DeviceScheduler(this.readsPerDevice, this.virtualThreads) : null;
+        final IOException[] discoveryError = new IOException[1];
+        // discovery -> workers -> ordered output on the calling thread
+        final Thread discovery = new Thread(() -> {
+            try {
+                if (scheduler != null) {
+                    discoverByDevice(in, maxDepth, out, scheduler, queue);
+                } else {
+                    discover(in, maxDepth, out, workers, queue);
+                }
+            } catch (final InterruptedIOException | RejectedExecutionException e) {
+                // output stage is gone
+                return;
+            } catch (final IOException e) {
+                discoveryError[0] = e;
+            } catch (final RuntimeException e) {
+                // still end the output stage, which would wait forever
+                discoveryError[0] = new IOException(e.getMessage(), e);
+            }
+            try {
+                queue.put(END);
+            } catch (final InterruptedException e) {
+                // output stage is gone
+            }
+        }, "sorter-discovery");
+        discovery.setDaemon(true);
+        discovery.start();
+        try {
+            while (true) {
+                final Future<SortEntry> next = queue.take();
+                if (next == END) {
+                    break;
+                }
+                handler.handle(next.get());
+            }
+            discovery.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } catch (final ExecutionException e) {
+            throw new IOException("resolving destination failed", e.getCause());
+        } finally {
+            discovery.interrupt();
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            } else {
+                workers.shutdownNow();
+            }
+        }
+        if (discoveryError[0] != null) {
+            throw discoveryError[0];
+        }
+    }
+
+    private void discover(final Path in, final int maxDepth, final Path out, final ExecutorService workers,
+            final BlockingQueue<Future<SortEntry>> queue) throws IOException {
+        this.walker.walk(in, maxDepth, (file, attrs) -> {
+            if (!attrs.isRegularFile() || !PathUtils.isAudioFileName(PathUtils.getFileName(file))) {
+                return;
+            }
+            try {
+                queue.put(workers.submit(() -> resolveOpen(file, out)));
+            } catch (final InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        });
+    }
+
+    // files are collected per folder, up to BATCH at a time, and submitted
+    // by device and inode; the output keeps the walk order, see the
+    // constructor
+    private void discoverByDevice(final Path in, final int maxDepth, final Path out,
+            final DeviceScheduler scheduler, final BlockingQueue<Future<SortEntry>> queue) throws IOException {
+        final List<Path> batch = new ArrayList<>(BATCH);
+        final List<DiskLocator.Location> locations = new ArrayList<>(BATCH);
+        this.walker.walk(in, maxDepth, (file, attrs) -> {
+            if (!attrs.isRegularFile() || !PathUtils.isAudioFileName(PathUtils.getFileName(file))) {
+                return;
+            }
+            if (!batch.isEmpty() && (batch.size() >= BATCH
+                    || !Objects.equals(file.getParent(), batch.get(batch.size() - 1).getParent()))) {
+                submit(batch, locations, out, scheduler, queue);
+            }
+            batch.add(file);
+            try {
+                locations.add(this.locator.locate(file, attrs));
+            } catch (final IOException e) {
+                // unreadable folder, reading its tags reports the error
+                locations.add(DiskLocator.UNKNOWN);
+            }
+        });
+        if (!batch.isEmpty()) {
+            submit(batch, locations, out, scheduler, queue);
+        }
+    }
+
+    private void submit(final List<Path> batch, final List<DiskLocator.Location> locations, final Path out,
+            final DeviceScheduler scheduler, final BlockingQueue<Future<SortEntry>> queue) throws IOException {
+        final Integer[] order = new Integer[batch.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> locations.get(i).getInode()));
+        final List<Future<SortEntry>> futures = new ArrayList<>(Collections.nCopies(order.length, null));
+        for (final int i : order) {
+            final Path file = batch.get(i);
+            futures.set(i, scheduler.submit(locations.get(i).getDevice(), () -> resolve(file, out)));
+        }
+        try {
+            for (final Future<SortEntry> future : futures) {
+                queue.put(future);
+            }
+        } catch (final InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        batch.clear();
+        locations.clear();
+    }
+
+    private SortEntry resolveOpen(final Path file, final Path out) throws InterruptedException {
+        this.open.acquire();
+        try {
+            return resolve(file, out);
+        } finally {
+            this.open.release();
+        }
+    }
+
+    private SortEntry resolve(final Path file, final Path out) {
+        try {
+            return this.sorterService.getEntry(file, out);
+        } catch (final SorterServiceException e) {
+            return new SortEntry(file, null, e.getMessage());
+        }
+    }
+}
@@ -1,12 +1,22 @@
 package com.element54.sorter;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
-import java.util.stream.Stream;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -16,11 +26,43 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import com.element54.sorter.audit.AuditReport;
+import com.element54.sorter.audit.OutputAuditor;
+import com.element54.sorter.cluster.Coordinator;
+import com.element54.sorter.cluster.Shard;
+import com.element54.sorter.cluster.Worker;
+import com.element54.sorter.duplicate.DuplicateResolver;
+import com.element54.sorter.duplicate.DuplicateResolver.Duplicate;
+import com.element54.sorter.duplicate.HashCache;
+import com.element54.sorter.duplicate.PayloadHasher;
+import com.element54.sorter.layout.Layout;
+import com.element54.sorter.layout.TemplateSorterService;
+import com.element54.sorter.library.LibraryIndex;
+import com.element54.sorter.library.LibraryRecord;
+import com.element54.sorter.library.LibraryUpdater;
+import com.element54.sorter.metrics.TimedAudioTagService;
+import com.element54.sorter.metrics.TimedFileNameCleaner;
+import com.element54.sorter.metrics.TimedSorterService;
+import com.element54.sorter.move.MoveEngine;
+import com.element54.sorter.move.MoveJournal;
 import com.element54.sorter.tags.AudioTagService;
+import com.element54.sorter.watch.WatchSorter;
+import com.element54.sorter.tags.impl.CachingAudioTagService;
+import com.element54.sorter.tags.impl.FormatDetectingTagService;
+import com.element54.sorter.tags.impl.ID3v2HeaderTagService;
+import com.element54.sorter.tags.impl.ID3v2RepairRule;
 import com.element54.sorter.tags.impl.MP3agicTagService;
+import com.element54.sorter.tags.impl.RepairingTagService;
+import com.element54.sorter.tags.impl.TagCache;
+import com.element54.utils.cache.LruCache;
+import com.element54.utils.concurrent.Workers;
 import com.element54.utils.file.FileNameCleaner;
+import com.element54.utils.file.FileWalker;
 import com.element54.utils.file.FilteredFileNameCleaner;
+import com.element54.utils.file.MemoizingFileNameCleaner;
 import com.element54.utils.file.PathUtils;
+import com.element54.utils.metrics.Counter;
+import com.element54.utils.metrics.Metrics;
 import com.element54.utils.string.FilteredStringCleaner;
 
 public class Sorter {
@@ -31,6 +73,85 @@ public class Sorter {
         final Options options = new Options();
         options.addOption(Option.builder("i").longOpt("in").hasArg().desc("input folder").build());
         options.addOption(Option.builder("o").longOpt("out").hasArg().desc("output folder").build());
+        options.addOption(Option.builder("t").longOpt("tags").hasArg()
+                .desc("id3 tag reader for mp3 files: mp3agic (default) or header").build());
+        options.addOption(Option.builder().longOpt("threads").hasArg()
+                .desc("number of tag reading threads (default: number of cpus, 256 files open with virtual threads)")
+                .build());
+        options.addOption(Option.builder().longOpt("unsorted")
+                .desc("process files in file system order instead of sorting every folder").build());
+        options.addOption(Option.builder().longOpt("move-threads").hasArg()
+                .desc("number of concurrent moves (default: 1, 64 with virtual threads)").build());
+        options.addOption(Option.builder().longOpt("repair").hasArg()
+                .desc("add missing id3v2 frames to mp3 files while sorting, comma separated:"
+                        + " albumArtist (from the artist), year (TYER from TDRC or the other way round) or all;"
+                        + " reads mp3 tags with the header reader; the repairs are written once the move is confirmed,"
+                        + " right away with --watch, and are not part of --plan-out")
+                .build());
+        options.addOption(Option.builder().longOpt("tag-cache").hasArg()
+                .desc("cache file for tags, keyed by path, size and modification time").build());
+        options.addOption(Option.builder().longOpt("tag-cache-size").hasArg()
+                .desc("maximum number of cached tags (default: 1000000)").build());
+        options.addOption(Option.builder().longOpt("plan-out").hasArg()
+                .desc("write the move plan to a file").build());
+        options.addOption(Option.builder().longOpt("plan-in").hasArg()
+                .desc("read the move plan from a file instead of scanning the input folder").build());
+        options.addOption(Option.builder().longOpt("watch")
+                .desc("keep running and sort files as they appear in the input folder, without asking").build());
+        options.addOption(Option.builder().longOpt("watch-settle").hasArg()
+                .desc("seconds a file must stay unchanged before it is sorted in watch mode (default: 10)").build());
+        options.addOption(Option.builder().longOpt("metrics-json").hasArg()
+                .desc("write timings and counters of the run to a json file").build());
+        options.addOption(Option.builder().longOpt("hash-cache").hasArg()
+                .desc("cache file for content hashes of colliding files").build());
+        options.addOption(Option.builder().longOpt("delete-identical")
+                .desc("delete files identical to the file at their destination after moving; with --coordinator"
+                        + " the coordinator deletes them itself").build());
+        options.addOption(Option.builder().longOpt("library").hasArg()
+                .desc("index file of the output tree, updated with every move").build());
+        options.addOption(Option.builder().longOpt("library-list").hasArg()
+                .desc("list the indexed files below a folder of the output tree").build());
+        options.addOption(Option.builder().longOpt("library-find").numberOfArgs(4)
+                .argName("albumArtist album disc track")
+                .desc("list the indexed files of a track, - for a disc or track number the tag lacks").build());
+        options.addOption(Option.builder().longOpt("layout").hasArg()
+                .desc("layout rules file for the output tree, \"default\" for the built-in layout as rules").build());
+        options.addOption(Option.builder().longOpt("journal").hasArg()
+                .desc("journal file recording every move, kept after an interrupted run").build());
+        options.addOption(Option.builder().longOpt("resume").hasArg()
+                .desc("finish the moves of an interrupted run from its journal").build());
+        options.addOption(Option.builder().longOpt("virtual-threads")
+                .desc("one virtual thread per file for tag reading and moving (Java 21+), for network storage")
+                .build());
+        options.addOption(Option.builder().longOpt("writes-per-mount").hasArg()
+                .desc("concurrent moves into one destination file system (default: 16 with virtual threads,"
+                        + " otherwise unlimited)").build());
+        options.addOption(Option.builder().longOpt("reads-per-device").hasArg()
+                .desc("read tags with a separate queue per device, with this many reads at once, and the files of"
+                        + " each folder in inode order; a slow device still holds back the ordered output"
+                        + " (default: off)").build());
+        options.addOption(Option.builder().longOpt("coordinator").hasArg()
+                .desc("split the input folder into shards for workers connecting on this port, 0 for any port")
+                .build());
+        options.addOption(Option.builder().longOpt("worker").hasArg()
+                .desc("read tags and move files for the coordinator at host:port").build());
+        options.addOption(Option.builder().longOpt("shards").hasArg()
+                .desc("number of shards the coordinator splits the input folder into (default: 64)").build());
+        options.addOption(Option.builder().longOpt("bind").hasArg()
+                .desc("address the coordinator listens on (default: loopback)").build());
+        options.addOption(Option.builder().longOpt("secret-file").hasArg()
+                .desc("file with the secret coordinator and workers authenticate each other with, required with"
+                        + " --coordinator and --worker").build());
+        options.addOption(Option.builder().longOpt("worker-timeout").hasArg()
+                .desc("seconds the coordinator waits for a worker to answer one shard or move batch before"
+                        + " dropping it and giving its shard to another worker (default: 1800)").build());
+        options.addOption(Option.builder().longOpt("audit").hasArg()
+                .desc("check the output folder against the layout without changing it and write misplaced files,"
+                        + " empty folders and tag failures as json lines to a file, - for stdout;"
+                        + " reads tags with the header reader unless -t is given").build());
+        options.addOption(Option.builder().longOpt("max-entries").hasArg()
+                .desc("entries of one folder listing or move plan kept in memory before spilling to temporary"
+                        + " files (default: " + MovePlan.DEFAULT_MAX_ENTRIES + ")").build());
         options.addOption(Option.builder("h").longOpt("help").desc("this help page").build());
         try {
             final CommandLine line = commandLineParser.parse(options, args);
@@ -42,80 +163,703 @@ public class Sorter {
     }
 
     private static void run(CommandLine line, Options options) {
+        if (!line.hasOption("watch")) {
+            bufferOutput();
+        }
+        if (line.hasOption("virtual-threads") && !Workers.isVirtualAvailable()) {
+            System.err.println("virtual threads need Java 21 or later, using platform threads");
+        }
         if (line.hasOption("h")) {
             printHelp(options);
         } else {
             final boolean i = line.hasOption("i");
             final boolean o = line.hasOption("o");
-            if (!(i && o)) {
+            if (line.hasOption("library-list") || line.hasOption("library-find")) {
+                if (!line.hasOption("library")) {
+                    error("--library-list and --library-find need --library");
+                }
+                listLibrary(line);
+            } else if (line.hasOption("resume")) {
+                resume(line);
+            } else if (line.hasOption("plan-in")) {
+                final Path planIn = Paths.get(line.getOptionValue("plan-in"));
+                sortPlan(line, planIn);
+            } else if (line.hasOption("worker")) {
+                work(line);
+            } else if (line.hasOption("audit")) {
+                if (!o) {
+                    error("--audit needs the output folder");
+                }
+                audit(line, Paths.get(line.getOptionValue("o")));
+            } else if (!(i && o)) {
                 error("Missing in and/or output folder");
             } else {
                 final Path in = Paths.get(line.getOptionValue("i"));
                 final Path out = Paths.get(line.getOptionValue("o"));
-                sort(in, out);
+                if (line.hasOption("coordinator")) {
+                    coordinate(line, in, out);
+                } else {
+                    sort(line, in, out);
+                }
             }
         }
     }
 
-    private static void sort(Path in, Path out) {
+    private static AudioTagService createTagService(String name) {
+        if ("mp3agic".equalsIgnoreCase(name)) {
+            return new FormatDetectingTagService(new MP3agicTagService());
+        } else if ("header".equalsIgnoreCase(name)) {
+            return new FormatDetectingTagService(new ID3v2HeaderTagService());
+        }
+        error("unknown tag reader " + name);
+        return null;
+    }
+
+    // deferred unless watching, where nothing is confirmed
+    private static RepairingTagService createRepairingTagService(CommandLine line, Metrics metrics) {
+        try {
+            return new RepairingTagService(ID3v2RepairRule.parse(line.getOptionValue("repair")),
+                    metrics.counter("tags.repaired"), metrics.counter("tags.rewritten"), !line.hasOption("watch"));
+        } catch (final IllegalArgumentException e) {
+            error(e.getMessage());
+            return null;
+        }
+    }
+
+    private static SorterService createSorterService(CommandLine line, AudioTagService audioTagService,
+            FileNameCleaner fileNameCleaner) {
+        if (!line.hasOption("layout")) {
+            return new StructuredSorterService(audioTagService, fileNameCleaner);
+        }
+        final String name = line.getOptionValue("layout");
+        try {
+            final Layout layout = "default".equals(name) ? Layout.parse(Layout.DEFAULT) : Layout.load(Paths.get(name));
+            return new TemplateSorterService(audioTagService, fileNameCleaner, layout);
+        } catch (final IOException | IllegalArgumentException e) {
+            error("cannot read layout " + name + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // with virtual threads, --threads is the number of files open at once
+    private static int readThreads(CommandLine line) {
+        final int defaultThreads = useVirtualThreads(line) ? 256 : Runtime.getRuntime().availableProcessors();
+        return parseInt(line.getOptionValue("threads"), defaultThreads);
+    }
+
+    private static boolean useVirtualThreads(CommandLine line) {
+        return line.hasOption("virtual-threads") && Workers.isVirtualAvailable();
+    }
+
+    private static int readMaxEntries(CommandLine line) {
+        return parseInt(line.getOptionValue("max-entries"), MovePlan.DEFAULT_MAX_ENTRIES);
+    }
+
+    // trailing line breaks are not part of the secret
+    private static byte[] readSecret(CommandLine line) {
+        if (!line.hasOption("secret-file")) {
+            error("--coordinator and --worker need --secret-file");
+            return null;
+        }
+        final Path file = Paths.get(line.getOptionValue("secret-file"));
+        final byte[] secret;
+        try {
+            secret = Files.readAllBytes(file);
+        } catch (final IOException e) {
+            error("cannot read secret " + file + ": " + e.getMessage());
+            return null;
+        }
+        int length = secret.length;
+        while (length > 0 && (secret[length - 1] == '\n' || secret[length - 1] == '\r')) {
+            length--;
+        }
+        if (length == 0) {
+            error("secret file " + file + " is empty");
+        }
+        return Arrays.copyOf(secret, length);
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (final NumberFormatException e) {
+            error("not a number: " + value);
+            return defaultValue;
+        }
+    }
+
+    // "-" for none
+    private static Integer parseNumber(String value) {
+        if ("-".equals(value)) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value);
+        } catch (final NumberFormatException e) {
+            error("not a number: " + value);
+            return null;
+        }
+    }
+
+    private static void sort(CommandLine line, Path in, Path out) {
+        if (!checkFolders(in, out)) {
+            return;
+        }
+        final Metrics metrics = new Metrics();
+        metrics.startPhase("scan");
+        final RepairingTagService repairingTagService = line.hasOption("repair")
+                ? createRepairingTagService(line, metrics) : null;
+        AudioTagService audioTagService = repairingTagService != null
+                ? new FormatDetectingTagService(repairingTagService)
+                : createTagService(line.getOptionValue("t", "mp3agic"));
+        CachingAudioTagService cachingTagService = null;
+        if (line.hasOption("tag-cache")) {
+            final Path cacheFile = Paths.get(line.getOptionValue("tag-cache"));
+            final TagCache cache = new TagCache(cacheFile, parseInt(line.getOptionValue("tag-cache-size"), 1000000));
+            try {
+                cache.load();
+            } catch (final IOException e) {
+                error("cannot read tag cache " + cacheFile + ": " + e.getMessage());
+                return;
+            }
+            cachingTagService = repairingTagService != null
+                    ? new CachingAudioTagService(audioTagService, cache, repairingTagService::isPending)
+                    : new CachingAudioTagService(audioTagService, cache);
+            audioTagService = cachingTagService;
+        }
+        audioTagService = new TimedAudioTagService(audioTagService, metrics.timer("readTag"));
+        final int threads = readThreads(line);
+        final MemoizingFileNameCleaner fileNameCleaner = new MemoizingFileNameCleaner(new TimedFileNameCleaner(
+                new FilteredFileNameCleaner(new FilteredStringCleaner(30)), metrics.timer("cleanName")), 10000);
+        final SorterService sorterService = new TimedSorterService(
+                createSorterService(line, audioTagService, fileNameCleaner), metrics.timer("getFile"));
+        final int maxEntries = readMaxEntries(line);
+        final FileWalker walker = new FileWalker(!line.hasOption("unsorted"), metrics.timer("list"), maxEntries);
+        if (line.hasOption("watch")) {
+            watch(line, in, out, sorterService, metrics);
+            return;
+        }
+        final SortPipeline pipeline = new SortPipeline(sorterService, threads, walker, useVirtualThreads(line),
+                parseInt(line.getOptionValue("reads-per-device"), 0));
+        final Counter scanned = metrics.counter("files.scanned");
+        final Counter failed = metrics.counter("files.failed");
+        final MovePlan plan = new MovePlan(maxEntries);
+        try {
+            pipeline.run(in, out, entry -> {
+                print(entry);
+                plan.add(entry);
+                scanned.increment();
+                if (entry.isFailed()) {
+                    failed.increment();
+                }
+            });
+        } catch (final IOException e) {
+            error("IO error: " + e.getMessage());
+            return;
+        }
+        if (cachingTagService != null) {
+            saveTagCache(cachingTagService);
+        }
+        final LruCache<?, ?> nameCache = fileNameCleaner.getCache();
+        System.out.println(String.format("Name cache: %d hits, %d misses (%.1f%%)", nameCache.getHits(),
+                nameCache.getMisses(), nameCache.getHitRate() * 100));
+        confirmAndApply(line, plan, metrics, null, repairingTagService);
+        closePlan(plan);
+        report(line, metrics);
+    }
+
+    private static boolean checkFolders(Path in, Path out) {
         System.out.println("Input folder: " + in.toAbsolutePath());
         System.out.println("Output folder: " + out.toAbsolutePath());
         if (!Files.exists(in) || !PathUtils.isDirectory(in)) {
             error("input folder does not exists or is not a directory.");
-            return;
+            return false;
         } else if (!Files.exists(out) || !PathUtils.isDirectory(out)) {
+            error("output folder does not exists or is not a directory.");
+            return false;
+        }
+        return true;
+    }
+
+    // Shards the input folder for the workers, then resolves duplicates over
+    // the merged plan and asks like a local run.
+    private static void coordinate(CommandLine line, Path in, Path out) {
+        if (!checkFolders(in, out)) {
+            return;
+        }
+        if (line.hasOption("journal") || line.hasOption("library")) {
+            error("--journal and --library are not supported with --coordinator");
+            return;
+        }
+        final byte[] secret = readSecret(line);
+        final Metrics metrics = new Metrics();
+        metrics.startPhase("scan");
+        final Coordinator coordinator;
+        try {
+            final InetAddress bind = line.hasOption("bind") ? InetAddress.getByName(line.getOptionValue("bind"))
+                    : InetAddress.getLoopbackAddress();
+            final int timeout = (int) TimeUnit.SECONDS.toMillis(parseInt(line.getOptionValue("worker-timeout"), 1800));
+            coordinator = new Coordinator(bind, parseInt(line.getOptionValue("coordinator"), 0), secret,
+                    Shard.partition(in, parseInt(line.getOptionValue("shards"), 64)), out, readMaxEntries(line), 1000,
+                    timeout);
+            coordinator.start();
+        } catch (final IOException e) {
+            error("cannot start coordinator: " + e.getMessage());
+            return;
+        }
+        System.out.println("Waiting for workers on " + coordinator.getAddress().getHostAddress() + " port "
+                + coordinator.getPort());
+        System.out.flush();
+        final Counter scanned = metrics.counter("files.scanned");
+        final Counter failed = metrics.counter("files.failed");
+        try {
+            final MovePlan plan = coordinator.plan();
+            for (final SortEntry entry : plan.getEntries()) {
+                print(entry);
+                scanned.increment();
+                if (entry.isFailed()) {
+                    failed.increment();
+                }
+            }
+            System.out.println("Sorted by " + coordinator.getWorkers() + " workers");
+            confirmAndApply(line, plan, metrics, coordinator, null);
+            closePlan(plan);
+        } catch (final IOException e) {
+            error("IO error: " + e.getMessage());
+            return;
+        } catch (final UncheckedIOException e) {
+            error("IO error: " + e.getCause().getMessage());
+            return;
+        } finally {
+            try {
+                coordinator.close();
+            } catch (final IOException e) {
+                System.err.println("cannot stop coordinator: " + e.getMessage());
+            }
+        }
+        report(line, metrics);
+    }
+
+    private static void moveOnWorkers(Coordinator coordinator, MovePlan plan, Metrics metrics) throws IOException {
+        coordinator.move(plan);
+        metrics.counter("files.moved").add(coordinator.getFiles());
+        metrics.counter("bytes.moved").add(coordinator.getBytes());
+        System.out.println("Moved " + coordinator.getFiles() + " files, " + coordinator.getBytes() / (1024 * 1024)
+                + " MB on " + coordinator.getWorkers() + " workers");
+        for (final String e : coordinator.getErrors()) {
+            System.err.println(e);
+        }
+    }
+
+    // serves a coordinator; tags, layout and threads come from the own options
+    private static void work(CommandLine line) {
+        final String address = line.getOptionValue("worker");
+        final int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            error("--worker needs host:port");
+            return;
+        }
+        final byte[] secret = readSecret(line);
+        final Metrics metrics = new Metrics();
+        final AudioTagService audioTagService = new TimedAudioTagService(
+                createTagService(line.getOptionValue("t", "mp3agic")), metrics.timer("readTag"));
+        final FileNameCleaner fileNameCleaner = new MemoizingFileNameCleaner(new TimedFileNameCleaner(
+                new FilteredFileNameCleaner(new FilteredStringCleaner(30)), metrics.timer("cleanName")), 10000);
+        final SorterService sorterService = new TimedSorterService(
+                createSorterService(line, audioTagService, fileNameCleaner), metrics.timer("getFile"));
+        final int maxEntries = readMaxEntries(line);
+        final boolean virtual = useVirtualThreads(line);
+        final SortPipeline pipeline = new SortPipeline(sorterService, readThreads(line),
+                new FileWalker(!line.hasOption("unsorted"), metrics.timer("list"), maxEntries), virtual,
+                parseInt(line.getOptionValue("reads-per-device"), 0));
+        final MoveEngine moveEngine = new MoveEngine(parseInt(line.getOptionValue("move-threads"), virtual ? 64 : 1),
+                metrics, virtual, parseInt(line.getOptionValue("writes-per-mount"), virtual ? 16 : 0));
+        final Worker worker = new Worker(address.substring(0, colon),
+                parseInt(address.substring(colon + 1), 0), secret, pipeline, moveEngine, maxEntries);
+        System.out.println("Worker for " + address);
+        System.out.flush();
+        try {
+            worker.run();
+        } catch (final IOException e) {
+            error("IO error: " + e.getMessage());
+            return;
+        }
+        System.out.println("Sorted " + worker.getFiles() + " files in " + worker.getShards() + " shards, moved "
+                + moveEngine.getFiles() + " files");
+        report(line, metrics);
+    }
+
+    // read only; with the report on stdout everything else goes to stderr
+    private static void audit(CommandLine line, Path out) {
+        final String target = line.getOptionValue("audit");
+        final boolean toStdout = "-".equals(target);
+        final PrintStream info = toStdout ? System.err : System.out;
+        info.println("Output folder: " + out.toAbsolutePath());
+        if (!Files.exists(out) || !PathUtils.isDirectory(out)) {
             error("output folder does not exists or is not a directory.");
             return;
         }
-        final AudioTagService audioTagService = new MP3agicTagService();
-        final FileNameCleaner fileNameCleaner = new FilteredFileNameCleaner(new FilteredStringCleaner(30));
-        final SorterService sorterService = new StructuredSorterService(audioTagService, fileNameCleaner);
+        final Metrics metrics = new Metrics();
+        final AudioTagService audioTagService = new TimedAudioTagService(
+                createTagService(line.getOptionValue("t", "header")), metrics.timer("readTag"));
+        final FileNameCleaner fileNameCleaner = new MemoizingFileNameCleaner(new TimedFileNameCleaner(
+                new FilteredFileNameCleaner(new FilteredStringCleaner(30)), metrics.timer("cleanName")), 10000);
+        final SorterService sorterService = new TimedSorterService(
+                createSorterService(line, audioTagService, fileNameCleaner), metrics.timer("getFile"));
+        final AuditReport report;
         try {
-            sortInt(in, out, false, sorterService);
+            report = new AuditReport(toStdout ? new BufferedWriter(new OutputStreamWriter(System.out,
+                    StandardCharsets.UTF_8)) : Files.newBufferedWriter(Paths.get(target), StandardCharsets.UTF_8));
+            new OutputAuditor(sorterService, readThreads(line)).audit(out, report);
+        } catch (final IOException e) {
+            error("IO error: " + e.getMessage());
+            return;
+        }
+        metrics.counter("files.audited").add(report.getFiles());
+        info.println("Audited " + report.getFiles() + " files: " + report.getMisplaced() + " misplaced, "
+                + report.getEmpty() + " empty folders, " + report.getFailed() + " failed");
+        report(line, metrics, info);
+        try {
+            report.close();
+        } catch (final IOException e) {
+            error("cannot write audit report: " + e.getMessage());
+        }
+    }
+
+    private static void watch(CommandLine line, Path in, Path out, SorterService sorterService, Metrics metrics) {
+        final MoveEngine moveEngine = new MoveEngine(1, metrics);
+        final LibraryIndex library;
+        try {
+            library = openLibrary(line);
+        } catch (final IOException e) {
+            error("cannot read library " + line.getOptionValue("library") + ": " + e.getMessage());
+            return;
+        }
+        addLibraryUpdater(line, moveEngine, library, null);
+        final long settle = TimeUnit.SECONDS.toMillis(parseInt(line.getOptionValue("watch-settle"), 10));
+        final WatchSorter watchSorter = new WatchSorter(sorterService, moveEngine, in, out, settle, 10000);
+        System.out.println("Watching " + in.toAbsolutePath());
+        try {
+            watchSorter.run();
+        } catch (final IOException e) {
+            error("IO error: " + e.getMessage());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeLibrary(library);
+        }
+    }
+
+    private static void report(CommandLine line, Metrics metrics) {
+        report(line, metrics, System.out);
+    }
+
+    private static void report(CommandLine line, Metrics metrics, PrintStream out) {
+        metrics.printSummary(out);
+        if (line.hasOption("metrics-json")) {
+            final Path file = Paths.get(line.getOptionValue("metrics-json"));
+            try {
+                metrics.writeJson(file);
+            } catch (final IOException e) {
+                System.err.println("cannot write metrics " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static void saveTagCache(CachingAudioTagService cachingTagService) {
+        final TagCache cache = cachingTagService.getCache();
+        try {
+            cache.save();
+        } catch (final IOException e) {
+            System.err.println("cannot write tag cache: " + e.getMessage());
+        }
+        System.out.println("Tag cache: " + cachingTagService.getHits() + " hits, " + cachingTagService.getMisses()
+                + " misses, " + cache.size() + " entries");
+    }
+
+    private static void sortPlan(CommandLine line, Path planIn) {
+        final MovePlan plan;
+        try {
+            plan = MovePlan.read(planIn, readMaxEntries(line));
+        } catch (final IOException e) {
+            error("cannot read plan " + planIn + ": " + e.getMessage());
+            return;
+        }
+        System.out.println("Plan: " + planIn.toAbsolutePath());
+        try {
+            for (final SortEntry entry : plan.getEntries()) {
+                print(entry);
+            }
+        } catch (final UncheckedIOException e) {
+            error("IO error: " + e.getCause().getMessage());
+            return;
+        }
+        final Metrics metrics = new Metrics();
+        confirmAndApply(line, plan, metrics);
+        closePlan(plan);
+        report(line, metrics);
+    }
+
+    private static void confirmAndApply(CommandLine line, MovePlan plan, Metrics metrics) {
+        confirmAndApply(line, plan, metrics, null, null);
+    }
+
+    // coordinator: moves on its workers instead of locally
+    // repairing: its pending repairs are written before the first move
+    private static void confirmAndApply(CommandLine line, MovePlan plan, Metrics metrics, Coordinator coordinator,
+            RepairingTagService repairing) {
+        LibraryIndex library = null;
+        try {
+            metrics.startPhase("resolve");
+            final HashCache hashCache = loadHashCache(line);
+            final int threads = readThreads(line);
+            library = openLibrary(line);
+            final DuplicateResolver resolver = new DuplicateResolver(new PayloadHasher(hashCache), threads, metrics,
+                    library);
+            final MovePlan resolved = resolver.resolve(plan);
+            if (hashCache != null) {
+                hashCache.save();
+            }
+            for (final Duplicate duplicate : resolver.getDuplicates()) {
+                print(duplicate);
+            }
+            if (line.hasOption("plan-out")) {
+                final Path planOut = Paths.get(line.getOptionValue("plan-out"));
+                resolved.write(planOut);
+                System.out.println("Plan written to " + planOut.toAbsolutePath());
+            }
+            if (repairing != null && repairing.getPending() > 0) {
+                System.out.println(repairing.getPending() + " tags will be repaired");
+            }
+            // waiting for the answer is no phase
+            metrics.stopPhase();
             final Scanner scanner = new Scanner(System.in);
             System.out.println("Move files? (y|N)");
-            final String line = scanner.nextLine();
+            System.out.flush();
+            final String answer = scanner.hasNextLine() ? scanner.nextLine() : "";
             scanner.close();
-            if (line.equalsIgnoreCase("y")) {
-                sortInt(in, out, true, sorterService);
+            if (answer.equalsIgnoreCase("y")) {
+                metrics.startPhase("move");
+                if (repairing != null) {
+                    repairing.writePending();
+                }
+                if (coordinator != null) {
+                    moveOnWorkers(coordinator, resolved, metrics);
+                } else {
+                    apply(line, resolved, metrics, hashCache, library);
+                }
+                if (line.hasOption("delete-identical")) {
+                    deleteIdentical(resolver);
+                }
+                metrics.stopPhase();
+            }
+            if (resolved != plan) {
+                resolved.close();
             }
         } catch (final IOException e) {
             error("IO error: " + e.getMessage());
             return;
+        } catch (final UncheckedIOException e) {
+            error("IO error: " + e.getCause().getMessage());
+            return;
+        } finally {
+            closeLibrary(library);
         }
     }
 
-    private static void sortInt(Path in, Path out, boolean move, SorterService sorterService) throws IOException {
-        final Stream<Path> childs = Files.list(in).sorted();
-        final Iterator<Path> it = childs.iterator();
-        while (it.hasNext()) {
-            final Path child = it.next();
-            if (!Files.isDirectory(child)) {
-                if (!PathUtils.isAudioFile(child)) {
-                    continue;
-                }
-                try {
-                    final Path dest = sorterService.getFile(child, out);
-                    System.out.println(child.toAbsolutePath() + " -> " + dest.toAbsolutePath());
-                    if (move) {
-                        final Path parent = dest.getParent();
-
-                        if (!Files.exists(parent)) {
-                            Files.createDirectories(parent);
-                        }
-                        Files.move(child, dest);
-                    }
-                } catch (final SorterServiceException e) {
-                    System.out.println(child.toAbsolutePath() + " FAILED: " + e.getMessage());
-                }
+    private static void closePlan(MovePlan plan) {
+        try {
+            plan.close();
+        } catch (final IOException e) {
+            System.err.println("cannot delete plan spill file: " + e.getMessage());
+        }
+    }
+
+    private static HashCache loadHashCache(CommandLine line) throws IOException {
+        if (!line.hasOption("hash-cache")) {
+            return null;
+        }
+        final HashCache cache = new HashCache(Paths.get(line.getOptionValue("hash-cache")), 1000000);
+        cache.load();
+        return cache;
+    }
+
+    // identical files are only deleted once the file they duplicate is in place
+    private static void deleteIdentical(DuplicateResolver resolver) throws IOException {
+        int deleted = 0;
+        for (final Duplicate duplicate : resolver.getDuplicates()) {
+            if (duplicate.getKind() == DuplicateResolver.Kind.IDENTICAL && Files.exists(duplicate.getDest())) {
+                Files.deleteIfExists(duplicate.getSource());
+                deleted++;
+            }
+        }
+        System.out.println("Deleted " + deleted + " identical files");
+    }
+
+    private static void print(Duplicate duplicate) {
+        final Path source = duplicate.getSource().toAbsolutePath();
+        switch (duplicate.getKind()) {
+        case IDENTICAL:
+            System.out.println(source + " IDENTICAL: " + duplicate.getDest());
+            break;
+        case RETAGGED:
+            System.out.println(source + " RETAGGED: " + duplicate.getDest());
+            break;
+        default:
+            System.out.println(source + " -> " + duplicate.getDest() + " (renamed, different content)");
+            break;
+        }
+    }
+
+    private static void print(SortEntry entry) {
+        final Path child = entry.getSource();
+        if (entry.isFailed()) {
+            System.out.println(child.toAbsolutePath() + " FAILED: " + entry.getError());
+        } else {
+            System.out.println(child.toAbsolutePath() + " -> " + entry.getDest().toAbsolutePath());
+        }
+    }
+
+    private static void apply(CommandLine line, MovePlan plan, Metrics metrics, HashCache hashCache,
+            LibraryIndex library) throws IOException {
+        MoveJournal journal = null;
+        if (line.hasOption("journal")) {
+            journal = MoveJournal.create(Paths.get(line.getOptionValue("journal")), plan.getEntries());
+        }
+        move(line, plan.getEntries(), metrics, hashCache, journal, library);
+    }
+
+    private static void resume(CommandLine line) {
+        final Path file = Paths.get(line.getOptionValue("resume"));
+        final MoveJournal journal;
+        try {
+            journal = MoveJournal.resume(file);
+        } catch (final IOException e) {
+            error("cannot resume " + file + ": " + e.getMessage());
+            return;
+        }
+        System.out.println("Journal: " + file.toAbsolutePath() + ", " + journal.getPending().size()
+                + " moves pending, " + journal.getRecovered() + " interrupted moves completed");
+        for (final String conflict : journal.getConflicts()) {
+            System.out.println("CONFLICT: " + conflict);
+        }
+        final Metrics metrics = new Metrics();
+        metrics.startPhase("move");
+        LibraryIndex library = null;
+        try {
+            library = openLibrary(line);
+            move(line, journal.getPending(), metrics, null, journal, library);
+        } catch (final IOException e) {
+            error("IO error: " + e.getMessage());
+            return;
+        } finally {
+            closeLibrary(library);
+        }
+        report(line, metrics);
+    }
+
+    // the journal is deleted once every move is done, otherwise kept for --resume
+    private static void move(CommandLine line, Iterable<SortEntry> entries, Metrics metrics, HashCache hashCache,
+            MoveJournal journal, LibraryIndex library) throws IOException {
+        final boolean virtual = useVirtualThreads(line);
+        final MoveEngine moveEngine = new MoveEngine(parseInt(line.getOptionValue("move-threads"), virtual ? 64 : 1),
+                metrics, virtual, parseInt(line.getOptionValue("writes-per-mount"), virtual ? 16 : 0));
+        addLibraryUpdater(line, moveEngine, library, hashCache);
+        if (journal != null) {
+            moveEngine.addListener(journal);
+        }
+        boolean done = false;
+        try {
+            moveEngine.moveAll(entries);
+            done = journal == null || journal.getConflicts().isEmpty();
+        } finally {
+            System.out.println("Moved " + moveEngine.getFiles() + " files, " + moveEngine.getBytes() / (1024 * 1024)
+                    + " MB, created " + moveEngine.getCreatedDirectories() + " folders");
+            if (moveEngine.getFailures() > 0) {
+                System.out.println(moveEngine.getFailures() + " moves failed");
+            }
+            if (journal != null) {
+                closeJournal(journal, done);
+            }
+        }
+    }
+
+    private static void closeJournal(MoveJournal journal, boolean done) {
+        try {
+            if (done) {
+                journal.complete();
+            } else {
+                journal.close();
+                System.err.println("Journal kept, continue with --resume " + journal.getFile());
+            }
+        } catch (final IOException e) {
+            System.err.println("cannot write journal: " + e.getMessage());
+        }
+    }
+
+    // null if no library index is configured
+    private static LibraryIndex openLibrary(CommandLine line) throws IOException {
+        if (!line.hasOption("library")) {
+            return null;
+        }
+        final LibraryIndex library = new LibraryIndex(Paths.get(line.getOptionValue("library")));
+        library.open();
+        return library;
+    }
+
+    // records every move of the engine in the library index, if one is open
+    private static void addLibraryUpdater(CommandLine line, MoveEngine moveEngine, LibraryIndex library,
+            HashCache hashCache) {
+        if (library != null) {
+            final AudioTagService tagService = createTagService(line.getOptionValue("t", "mp3agic"));
+            moveEngine.addListener(new LibraryUpdater(library, tagService, hashCache));
+        }
+    }
+
+    private static void closeLibrary(LibraryIndex library) {
+        if (library != null) {
+            try {
+                library.close();
+            } catch (final IOException e) {
+                System.err.println("cannot write library: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void listLibrary(CommandLine line) {
+        final LibraryIndex library = new LibraryIndex(Paths.get(line.getOptionValue("library")));
+        try {
+            library.open();
+            final List<LibraryRecord> records;
+            if (line.hasOption("library-find")) {
+                final String[] track = line.getOptionValues("library-find");
+                records = library.find(track[0], track[1], parseNumber(track[2]), parseNumber(track[3]));
             } else {
-                sortInt(child, out, move, sorterService);
+                records = library.list(Paths.get(line.getOptionValue("library-list")));
+            }
+            for (final LibraryRecord record : records) {
+                System.out.println(record.getDest() + " <- " + record.getSource());
             }
+            library.close();
+        } catch (final IOException e) {
+            error("cannot read library " + line.getOptionValue("library") + ": " + e.getMessage());
         }
-        childs.close();
+    }
+
+    // per file output of large runs goes out in blocks; flushed before the
+    // prompt and when the vm exits, including exits through error()
+    private static void bufferOutput() {
+        final PrintStream out = new PrintStream(
+                new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+        System.setOut(out);
+        Runtime.getRuntime().addShutdownHook(new Thread(out::flush));
     }
 
     private static void error(String msg) {
+        System.out.flush();
         System.err.println(msg);
         System.exit(1);
     }
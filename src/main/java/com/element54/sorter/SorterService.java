@@ -4,4 +4,7 @@ import java.nio.file.Path;
 
 public interface SorterService {
     public Path getFile(final Path file, final Path destFolder) throws SorterServiceException;
+
+    // as getFile, with the tag the destination was computed from
+    public SortEntry getEntry(final Path file, final Path destFolder) throws SorterServiceException;
 }
@@ -23,12 +23,24 @@ public class StructuredSorterService implements SorterService {
 
     @Override
     public Path getFile(Path file, Path destFolder) throws SorterServiceException {
-        final AudioTag tag;
+        return getFile(file, readTag(file), destFolder);
+    }
+
+    @Override
+    public SortEntry getEntry(Path file, Path destFolder) throws SorterServiceException {
+        final AudioTag tag = readTag(file);
+        return new SortEntry(file, getFile(file, tag, destFolder), null, tag);
+    }
+
+    private AudioTag readTag(final Path file) throws SorterServiceException {
         try {
-            tag = this.audioTagService.readTag(file);
+            return this.audioTagService.readTag(file);
         } catch (final IOException e) {
             throw new SorterServiceException("cannot read tags", e, file);
         }
+    }
+
+    private Path getFile(final Path file, final AudioTag tag, final Path destFolder) throws SorterServiceException {
         final String ext = PathUtils.getExtension(file);
         final boolean audiobook = tag.isAudiobook();
         final boolean music = tag.isMusic();
@@ -131,8 +143,8 @@ public class StructuredSorterService implements SorterService {
         return this.fileNameCleaner.create(artistFolder, title, ext);
     }
 
-    private static NumberFormat format2 = new DecimalFormat("00");
-    private static NumberFormat format3 = new DecimalFormat("000");
+    private static final ThreadLocal<NumberFormat> format2 = ThreadLocal.withInitial(() -> new DecimalFormat("00"));
+    private static final ThreadLocal<NumberFormat> format3 = ThreadLocal.withInitial(() -> new DecimalFormat("000"));
 
     private String getNumberString(final AudioTag tag, final boolean useFormat3) throws SorterServiceException {
         final Integer disc = tag.getDisk();
@@ -140,7 +152,7 @@ public class StructuredSorterService implements SorterService {
         if (track == null) {
             throw new SorterServiceException("track lacks", null, tag.getFile());
         }
-        final NumberFormat format = useFormat3 ? format3 : format2;
+        final NumberFormat format = useFormat3 ? format3.get() : format2.get();
         if (disc == null) {
             return format.format(track);
         } else {
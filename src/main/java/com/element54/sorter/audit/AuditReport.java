@@ -0,0 +1,86 @@
+package com.element54.sorter.audit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Writes audit findings as json lines, one object per finding with a "type"
+// of misplaced, empty or failed, and a closing summary object.
+public class AuditReport implements Closeable {
+    private final Writer out;
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong misplaced = new AtomicLong();
+    private final AtomicLong empty = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public AuditReport(final Writer out) {
+        super();
+        this.out = out;
+    }
+
+    public long getFiles() {
+        return this.files.get();
+    }
+
+    public long getMisplaced() {
+        return this.misplaced.get();
+    }
+
+    public long getEmpty() {
+        return this.empty.get();
+    }
+
+    public long getFailed() {
+        return this.failed.get();
+    }
+
+    void checked() {
+        this.files.incrementAndGet();
+    }
+
+    void misplaced(final Path file, final Path expected) throws IOException {
+        this.misplaced.incrementAndGet();
+        write("{\"type\":\"misplaced\",\"file\":" + quote(file.toString()) + ",\"expected\":"
+                + quote(expected.toString()) + "}");
+    }
+
+    void empty(final Path folder) throws IOException {
+        this.empty.incrementAndGet();
+        write("{\"type\":\"empty\",\"folder\":" + quote(folder.toString()) + "}");
+    }
+
+    void failed(final Path file, final String error) throws IOException {
+        this.failed.incrementAndGet();
+        write("{\"type\":\"failed\",\"file\":" + quote(file.toString()) + ",\"error\":"
+                + quote(error == null ? "" : error) + "}");
+    }
+
+    @Override
+    public void close() throws IOException {
+        write("{\"type\":\"summary\",\"files\":" + this.files.get() + ",\"misplaced\":" + this.misplaced.get()
+                + ",\"empty\":" + this.empty.get() + ",\"failed\":" + this.failed.get() + "}");
+        this.out.close();
+    }
+
+    private synchronized void write(final String line) throws IOException {
+        this.out.write(line);
+        this.out.write('\n');
+    }
+
+    private static String quote(final String s) {
+        final StringBuilder b = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                b.append('\\').append(c);
+            } else if (c < 0x20) {
+                b.append(String.format("\\u%04x", (int) c));
+            } else {
+                b.append(c);
+            }
+        }
+        return b.append('"').toString();
+    }
+}
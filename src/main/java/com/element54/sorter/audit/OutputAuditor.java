@@ -0,0 +1,161 @@
+package com.element54.sorter.audit;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.element54.sorter.SorterService;
+import com.element54.sorter.SorterServiceException;
+import com.element54.utils.file.PathUtils;
+
+// Checks an output tree against the sorter service without changing it. Each
+// folder is a fork join task that forks its sub folders and computes the
+// destination of its audio files in place. A file is misplaced if the
+// service would put it elsewhere; a numbered copy, "name_2.ext" next to
+// "name.ext", counts as in place. A folder without files anywhere below it
+// is reported as empty, only the topmost of such folders.
+public class OutputAuditor {
+    private final SorterService sorterService;
+    private final int threads;
+
+    public OutputAuditor(final SorterService sorterService, final int threads) {
+        super();
+        this.sorterService = sorterService;
+        this.threads = Math.max(1, threads);
+    }
+
+    public void audit(final Path out, final AuditReport report) throws IOException {
+        final Path root = out.toAbsolutePath().normalize();
+        final ForkJoinPool pool = new ForkJoinPool(this.threads);
+        try {
+            pool.invoke(new FolderTask(root, root, report));
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private final class FolderTask extends RecursiveTask<Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path root;
+        private final Path folder;
+        private final AuditReport report;
+
+        FolderTask(final Path root, final Path folder, final AuditReport report) {
+            this.root = root;
+            this.folder = folder;
+            this.report = report;
+        }
+
+        // true if there is a file anywhere below the folder
+        @Override
+        protected Boolean compute() {
+            try {
+                return audit();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private boolean audit() throws IOException {
+            final DirectoryStream<Path> stream;
+            try {
+                stream = Files.newDirectoryStream(this.folder);
+            } catch (final IOException e) {
+                // unknown content, not reported as empty
+                this.report.failed(this.folder, "cannot list: " + e.getMessage());
+                return true;
+            }
+            final List<FolderTask> subFolders = new ArrayList<>();
+            boolean files = false;
+            try (DirectoryStream<Path> s = stream) {
+                for (final Path child : s) {
+                    final BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(child, BasicFileAttributes.class);
+                    } catch (final IOException e) {
+                        this.report.failed(child, "cannot read attributes: " + e.getMessage());
+                        files = true;
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        final FolderTask task = new FolderTask(this.root, child, this.report);
+                        task.fork();
+                        subFolders.add(task);
+                    } else {
+                        files = true;
+                        if (attrs.isRegularFile() && PathUtils.isAudioFileName(PathUtils.getFileName(child))) {
+                            check(child);
+                        }
+                    }
+                }
+            } catch (final DirectoryIteratorException e) {
+                this.report.failed(this.folder, "cannot list: " + e.getCause().getMessage());
+                files = true;
+            }
+            final List<Path> empty = new ArrayList<>();
+            for (final FolderTask task : subFolders) {
+                if (task.join()) {
+                    files = true;
+                } else {
+                    empty.add(task.folder);
+                }
+            }
+            if (files || this.folder.equals(this.root)) {
+                for (final Path e : empty) {
+                    this.report.empty(e);
+                }
+            }
+            return files;
+        }
+
+        private void check(final Path file) throws IOException {
+            this.report.checked();
+            final Path expected;
+            try {
+                expected = OutputAuditor.this.sorterService.getFile(file, this.root).toAbsolutePath().normalize();
+            } catch (final SorterServiceException e) {
+                this.report.failed(file, e.getMessage());
+                return;
+            }
+            if (!expected.equals(file) && !isNumberedCopy(file, expected)) {
+                this.report.misplaced(file, expected);
+            }
+        }
+    }
+
+    // "name_2.ext" for "name.ext", as the duplicate resolver names them
+    static boolean isNumberedCopy(final Path file, final Path expected) {
+        if (!file.getParent().equals(expected.getParent())) {
+            return false;
+        }
+        final String name = file.getFileName().toString();
+        final String target = expected.getFileName().toString();
+        final int dot = target.lastIndexOf('.');
+        final String base = dot < 0 ? target : target.substring(0, dot);
+        final String ext = dot < 0 ? "" : target.substring(dot);
+        if (!name.startsWith(base + "_") || !name.endsWith(ext)) {
+            return false;
+        }
+        final String number = name.substring(base.length() + 1, name.length() - ext.length());
+        if (number.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < number.length(); i++) {
+            if (!Character.isDigit(number.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
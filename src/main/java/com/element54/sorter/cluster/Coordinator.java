@@ -0,0 +1,324 @@
+package com.element54.sorter.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.element54.sorter.MovePlan;
+import com.element54.sorter.SortEntry;
+
+// Hands out shards of the input tree to the workers that connect and
+// collects their plans. Workers pull the next shard when done with one, so
+// faster workers sort more. The merged plan is resolved by the caller, then
+// its moves go out to the workers in batches the same way, read from the
+// plan as workers ask for them. A worker that does not answer a request
+// within the timeout is dropped. A shard whose worker disconnects or times
+// out is given to another worker, up to MAX_ATTEMPTS times, after which it
+// becomes one failed entry; a move batch is not given to another worker,
+// since some of its files may already be moved.
+public class Coordinator implements Closeable {
+
+    private static final long POLL_MILLIS = 100;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final InetAddress bind;
+    private final int port;
+    private final byte[] secret;
+    private final int timeoutMillis;
+    private final Path out;
+    private final int maxEntries;
+    private final int batchSize;
+    private final BlockingQueue<Shard> pendingShards;
+    private final MovePlan[] plans;
+    private final int[] attempts;
+    private final CountDownLatch planned;
+    // guarded by this
+    private Iterator<SortEntry> moves = null;
+    private int movesInFlight = 0;
+    private int nextBatch = 0;
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final List<String> errors = new CopyOnWriteArrayList<>();
+    private final AtomicLong workers = new AtomicLong();
+    private final List<Thread> handlers = new CopyOnWriteArrayList<>();
+    private volatile boolean closed = false;
+    private ServerSocket server;
+
+    // bind: address to listen on; secret: shared with the workers;
+    // batchSize: entries per move request; timeoutMillis: longest wait for
+    // the answer to one request
+    public Coordinator(final InetAddress bind, final int port, final byte[] secret, final List<Shard> shards,
+            final Path out, final int maxEntries, final int batchSize, final int timeoutMillis) {
+        super();
+        this.bind = bind;
+        this.port = port;
+        this.secret = secret.clone();
+        this.timeoutMillis = timeoutMillis;
+        this.out = out.toAbsolutePath();
+        this.maxEntries = maxEntries;
+        this.batchSize = Math.max(1, batchSize);
+        this.pendingShards = new LinkedBlockingQueue<>(shards);
+        this.plans = new MovePlan[shards.size()];
+        this.attempts = new int[shards.size()];
+        this.planned = new CountDownLatch(shards.size());
+    }
+
+    public void start() throws IOException {
+        this.server = new ServerSocket(this.port, 50, this.bind);
+        final Thread acceptor = new Thread(this::accept, "coordinator-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return this.server.getLocalPort();
+    }
+
+    public InetAddress getAddress() {
+        return this.server.getInetAddress();
+    }
+
+    public long getWorkers() {
+        return this.workers.get();
+    }
+
+    public long getFiles() {
+        return this.files.get();
+    }
+
+    public long getBytes() {
+        return this.bytes.get();
+    }
+
+    public List<String> getErrors() {
+        return Collections.unmodifiableList(this.errors);
+    }
+
+    // waits for the plans of all shards and merges them in shard order; a
+    // shard no worker could sort is one failed entry
+    public MovePlan plan() throws IOException {
+        try {
+            this.planned.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("planning interrupted");
+        }
+        final MovePlan merged = new MovePlan(this.maxEntries);
+        for (int i = 0; i < this.plans.length; i++) {
+            for (final SortEntry entry : this.plans[i].getEntries()) {
+                merged.add(entry);
+            }
+            this.plans[i].close();
+            this.plans[i] = null;
+        }
+        return merged;
+    }
+
+    // moves the entries of the plan on the workers and waits for all batches
+    public synchronized void move(final MovePlan plan) throws IOException {
+        this.moves = plan.getEntries().iterator();
+        try {
+            while (this.moves != null || this.movesInFlight > 0) {
+                wait();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("moving interrupted");
+        }
+    }
+
+    // tells the workers to quit
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        if (this.server != null) {
+            this.server.close();
+        }
+        try {
+            for (final Thread handler : this.handlers) {
+                handler.join(POLL_MILLIS * 10);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept() {
+        while (!this.closed) {
+            final Socket socket;
+            try {
+                socket = this.server.accept();
+            } catch (final IOException e) {
+                // closed
+                return;
+            }
+            final Thread handler = new Thread(() -> serve(socket), "coordinator-" + socket.getRemoteSocketAddress());
+            handler.setDaemon(true);
+            this.handlers.add(handler);
+            handler.start();
+        }
+    }
+
+    private void serve(final Socket socket) {
+        try (Socket s = socket;
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            // the coordinator only reads while it waits for an answer
+            s.setSoTimeout(this.timeoutMillis);
+            if (in.readInt() != Protocol.MAGIC) {
+                return;
+            }
+            final int version = in.readInt();
+            if (version != Protocol.VERSION) {
+                this.errors.add("worker " + s.getRemoteSocketAddress() + " speaks version " + version);
+                return;
+            }
+            final byte[] workerNonce = Protocol.readNonce(in);
+            final byte[] nonce = Protocol.nonce();
+            out.write(nonce);
+            out.write(Protocol.mac(this.secret, Protocol.COORDINATOR, workerNonce, nonce));
+            out.flush();
+            if (!Protocol.verify(in, Protocol.mac(this.secret, Protocol.WORKER, nonce, workerNonce))) {
+                this.errors.add("worker " + s.getRemoteSocketAddress() + " does not know the secret");
+                return;
+            }
+            this.workers.incrementAndGet();
+            while (!this.closed) {
+                final Shard shard = this.pendingShards.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (shard != null) {
+                    sort(shard, in, out);
+                    continue;
+                }
+                final MovePlan batch = nextBatch();
+                if (batch != null) {
+                    move(batch, in, out);
+                }
+            }
+            out.writeByte(Protocol.DONE);
+            out.flush();
+        } catch (final IOException e) {
+            // worker gone or timed out, its shard is back in the queue
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sort(final Shard shard, final DataInputStream in, final DataOutputStream out) throws IOException {
+        try {
+            out.writeByte(Protocol.SHARD);
+            out.writeInt(shard.getId());
+            out.writeUTF(shard.getFolder().toString());
+            out.writeInt(shard.getMaxDepth());
+            out.writeUTF(this.out.toString());
+            out.flush();
+            Protocol.expect(in, Protocol.PLAN, shard.getId());
+            this.plans[shard.getId()] = MovePlan.read(in, this.maxEntries);
+        } catch (final IOException e) {
+            retry(shard, e);
+            throw e;
+        }
+        this.planned.countDown();
+    }
+
+    // the connection of the failed worker is closed afterwards, so a late
+    // plan of the shard is never read
+    private void retry(final Shard shard, final IOException e) throws IOException {
+        final int attempt;
+        synchronized (this) {
+            attempt = ++this.attempts[shard.getId()];
+        }
+        if (attempt < MAX_ATTEMPTS) {
+            this.pendingShards.add(shard);
+            return;
+        }
+        final MovePlan failed = new MovePlan(this.maxEntries);
+        failed.add(new SortEntry(shard.getFolder(), null,
+                "shard failed on " + attempt + " workers: " + e.getMessage()));
+        this.plans[shard.getId()] = failed;
+        this.planned.countDown();
+    }
+
+    private void move(final MovePlan batch, final DataInputStream in, final DataOutputStream out)
+            throws IOException {
+        final int id;
+        synchronized (this) {
+            id = this.nextBatch++;
+        }
+        try {
+            out.writeByte(Protocol.MOVE);
+            out.writeInt(id);
+            batch.write(out);
+            out.flush();
+            final byte type = in.readByte();
+            if (in.readInt() != id) {
+                throw new IOException("reply for another batch");
+            }
+            if (type == Protocol.MOVED) {
+                this.files.addAndGet(in.readLong());
+                this.bytes.addAndGet(in.readLong());
+            } else if (type == Protocol.FAILED) {
+                this.errors.add(in.readUTF());
+            } else {
+                throw new IOException("unexpected message " + type);
+            }
+        } catch (final IOException e) {
+            this.errors.add("worker lost during " + batch.size() + " moves: " + e.getMessage());
+            throw e;
+        } finally {
+            batch.close();
+            batchDone();
+        }
+    }
+
+    // the next entries to move, null if there are none now
+    private synchronized MovePlan nextBatch() throws IOException {
+        if (this.moves == null) {
+            return null;
+        }
+        final MovePlan batch = new MovePlan(this.maxEntries);
+        try {
+            while (batch.size() < this.batchSize && this.moves.hasNext()) {
+                final SortEntry entry = this.moves.next();
+                if (!entry.isFailed()) {
+                    batch.add(entry);
+                }
+            }
+        } catch (final UncheckedIOException e) {
+            this.errors.add("cannot read plan: " + e.getCause().getMessage());
+            this.moves = null;
+        }
+        if (this.moves != null && !this.moves.hasNext()) {
+            this.moves = null;
+        }
+        notifyAll();
+        if (batch.size() == 0) {
+            batch.close();
+            return null;
+        }
+        this.movesInFlight++;
+        return batch;
+    }
+
+    private synchronized void batchDone() {
+        this.movesInFlight--;
+        notifyAll();
+    }
+}
@@ -0,0 +1,95 @@
+package com.element54.sorter.cluster;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// Messages between coordinator and workers. A worker connects and sends
+// MAGIC, VERSION and a nonce; the coordinator answers with its own nonce
+// and proves it knows the shared secret, then the worker proves it too:
+//
+// MAGIC VERSION nonceW  ->  nonceC mac(COORDINATOR, nonceW, nonceC)
+// mac(WORKER, nonceC, nonceW)
+//
+// The macs are HMAC-SHA256 keyed with the secret, which itself never goes
+// over the wire. Then the coordinator sends SHARD and MOVE requests, each
+// answered before the next, and finally DONE. Only the handshake is
+// authenticated, the messages after it are neither signed nor encrypted.
+//
+// SHARD id folder maxDepth out  ->  PLAN id entries
+// MOVE id entries               ->  MOVED id files bytes | FAILED id message
+//
+// Entries are written by MovePlan.write(DataOutputStream).
+final class Protocol {
+    static final int MAGIC = 0x4d53434c;
+    // 2: handshake with nonces and macs
+    static final int VERSION = 2;
+    static final int NONCE_LENGTH = 16;
+    static final int MAC_LENGTH = 32;
+
+    static final byte SHARD = 1;
+    static final byte MOVE = 2;
+    static final byte DONE = 3;
+    static final byte PLAN = 4;
+    static final byte MOVED = 5;
+    static final byte FAILED = 6;
+
+    static final byte COORDINATOR = 1;
+    static final byte WORKER = 2;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private Protocol() {
+    }
+
+    static void expect(final DataInputStream in, final byte type, final int id) throws IOException {
+        final byte actual = in.readByte();
+        if (actual != type) {
+            throw new IOException("unexpected message " + actual);
+        }
+        final int actualId = in.readInt();
+        if (actualId != id) {
+            throw new IOException("reply for " + actualId + ", expected " + id);
+        }
+    }
+
+    static byte[] nonce() {
+        final byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        return nonce;
+    }
+
+    // the proof of one side that it knows the secret, over the nonce it
+    // received and the one it sent
+    static byte[] mac(final byte[] secret, final byte side, final byte[] received, final byte[] sent)
+            throws IOException {
+        try {
+            final Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            mac.update(side);
+            mac.update(received);
+            mac.update(sent);
+            return mac.doFinal();
+        } catch (final GeneralSecurityException e) {
+            throw new IOException("cannot compute handshake mac", e);
+        }
+    }
+
+    // reads the other side's mac and compares it in constant time
+    static boolean verify(final DataInputStream in, final byte[] expected) throws IOException {
+        final byte[] actual = new byte[MAC_LENGTH];
+        in.readFully(actual);
+        return MessageDigest.isEqual(actual, expected);
+    }
+
+    static byte[] readNonce(final DataInputStream in) throws IOException {
+        final byte[] nonce = new byte[NONCE_LENGTH];
+        in.readFully(nonce);
+        return nonce;
+    }
+}
@@ -0,0 +1,84 @@
+package com.element54.sorter.cluster;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+
+// A part of the input tree sorted by one worker: a folder with everything
+// below it, or only the files directly in a folder.
+public class Shard {
+    private final int id;
+    private final Path folder;
+    private final int maxDepth;
+
+    public Shard(final int id, final Path folder, final int maxDepth) {
+        super();
+        this.id = id;
+        this.folder = folder;
+        this.maxDepth = maxDepth;
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public Path getFolder() {
+        return this.folder;
+    }
+
+    public int getMaxDepth() {
+        return this.maxDepth;
+    }
+
+    // Splits folders breadth first until there are about target shards. A
+    // split folder leaves a shard of its own files, if it has any, and one
+    // shard per sub folder. Shards are numbered in path order.
+    public static List<Shard> partition(final Path in, final int target) throws IOException {
+        final List<Path> flat = new ArrayList<>();
+        final Deque<Path> deep = new ArrayDeque<>();
+        deep.add(in.toAbsolutePath());
+        while (!deep.isEmpty() && flat.size() + deep.size() < target) {
+            final Path dir = deep.poll();
+            final List<Path> subFolders = new ArrayList<>();
+            boolean files = false;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (final Path child : stream) {
+                    if (Files.isDirectory(child)) {
+                        subFolders.add(child);
+                    } else {
+                        files = true;
+                    }
+                }
+            } catch (final DirectoryIteratorException e) {
+                throw e.getCause();
+            }
+            if (files) {
+                flat.add(dir);
+            }
+            Collections.sort(subFolders);
+            deep.addAll(subFolders);
+        }
+        final List<Shard> shards = new ArrayList<>();
+        for (final Path dir : flat) {
+            shards.add(new Shard(0, dir, 1));
+        }
+        for (final Path dir : deep) {
+            shards.add(new Shard(0, dir, Integer.MAX_VALUE));
+        }
+        // a folder's own files before its sub folders
+        shards.sort(Comparator.comparing(Shard::getFolder).thenComparingInt(Shard::getMaxDepth));
+        final List<Shard> numbered = new ArrayList<>(shards.size());
+        for (final Shard shard : shards) {
+            numbered.add(new Shard(numbered.size(), shard.folder, shard.maxDepth));
+        }
+        return numbered;
+    }
+}
@@ -0,0 +1,133 @@
+package com.element54.sorter.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.element54.sorter.MovePlan;
+import com.element54.sorter.SortEntry;
+import com.element54.sorter.SortPipeline;
+import com.element54.sorter.move.MoveEngine;
+
+// Connects to a coordinator and serves its requests until it is done: sorts
+// shards with the pipeline and sends back their plans, and moves batches of
+// the resolved plan with the engine. A coordinator that cannot prove it knows
+// the shared secret gets no request served.
+public class Worker {
+    private final String host;
+    private final int port;
+    private final byte[] secret;
+    private final SortPipeline pipeline;
+    private final MoveEngine moveEngine;
+    private final int maxEntries;
+    private int shards = 0;
+    private long files = 0;
+
+    public Worker(final String host, final int port, final byte[] secret, final SortPipeline pipeline,
+            final MoveEngine moveEngine, final int maxEntries) {
+        super();
+        this.host = host;
+        this.port = port;
+        this.secret = secret.clone();
+        this.pipeline = pipeline;
+        this.moveEngine = moveEngine;
+        this.maxEntries = maxEntries;
+    }
+
+    public int getShards() {
+        return this.shards;
+    }
+
+    public long getFiles() {
+        return this.files;
+    }
+
+    public void run() throws IOException {
+        try (Socket socket = new Socket(this.host, this.port);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            out.writeInt(Protocol.MAGIC);
+            out.writeInt(Protocol.VERSION);
+            final byte[] nonce = Protocol.nonce();
+            out.write(nonce);
+            out.flush();
+            final byte[] coordinatorNonce = Protocol.readNonce(in);
+            if (!Protocol.verify(in, Protocol.mac(this.secret, Protocol.COORDINATOR, nonce, coordinatorNonce))) {
+                throw new IOException("coordinator does not know the secret");
+            }
+            out.write(Protocol.mac(this.secret, Protocol.WORKER, coordinatorNonce, nonce));
+            out.flush();
+            while (true) {
+                final byte type;
+                try {
+                    type = in.readByte();
+                } catch (final EOFException e) {
+                    // coordinator exited without saying goodbye
+                    return;
+                }
+                if (type == Protocol.DONE) {
+                    return;
+                }
+                final int id = in.readInt();
+                if (type == Protocol.SHARD) {
+                    final Path folder = Paths.get(in.readUTF());
+                    final int maxDepth = in.readInt();
+                    final Path dest = Paths.get(in.readUTF());
+                    sort(id, folder, maxDepth, dest, out);
+                } else if (type == Protocol.MOVE) {
+                    move(id, MovePlan.read(in, this.maxEntries), out);
+                } else {
+                    throw new IOException("unexpected message " + type);
+                }
+                out.flush();
+            }
+        }
+    }
+
+    // a shard that cannot be read becomes one failed entry for its folder
+    private void sort(final int id, final Path folder, final int maxDepth, final Path dest,
+            final DataOutputStream out) throws IOException {
+        final MovePlan plan = new MovePlan(this.maxEntries);
+        try {
+            try {
+                this.pipeline.run(folder, maxDepth, dest, plan::add);
+            } catch (final IOException e) {
+                plan.close();
+                plan.add(new SortEntry(folder, null, "cannot sort shard: " + e.getMessage()));
+            }
+            this.shards++;
+            this.files += plan.size();
+            System.out.println("Shard " + id + ": " + folder + ", " + plan.size() + " files");
+            System.out.flush();
+            out.writeByte(Protocol.PLAN);
+            out.writeInt(id);
+            plan.write(out);
+        } finally {
+            plan.close();
+        }
+    }
+
+    private void move(final int id, final MovePlan batch, final DataOutputStream out) throws IOException {
+        final long files = this.moveEngine.getFiles();
+        final long bytes = this.moveEngine.getBytes();
+        try {
+            this.moveEngine.moveAll(batch.getEntries());
+            out.writeByte(Protocol.MOVED);
+            out.writeInt(id);
+            out.writeLong(this.moveEngine.getFiles() - files);
+            out.writeLong(this.moveEngine.getBytes() - bytes);
+        } catch (final IOException e) {
+            out.writeByte(Protocol.FAILED);
+            out.writeInt(id);
+            out.writeUTF("moving failed: " + e.getMessage());
+        } finally {
+            batch.close();
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.element54.sorter.duplicate;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.element54.sorter.MovePlan;
+import com.element54.sorter.SortEntry;
+import com.element54.sorter.library.LibraryIndex;
+import com.element54.utils.file.PathTrie;
+import com.element54.utils.metrics.Counter;
+import com.element54.utils.metrics.Metrics;
+import com.element54.utils.metrics.Timer;
+
+// Finds plan entries whose destination is already taken, by an existing file
+// or by an earlier entry, and hashes only those files. A file identical to
+// the occupant or differing only in its tags is not moved; a different
+// recording gets a numbered suffix. With a library index, destinations it
+// holds are known to be taken without a stat; the others are still looked
+// up on disk, as the output tree may hold files the index never saw.
+public class DuplicateResolver {
+
+    public enum Kind {
+        IDENTICAL, RETAGGED, RENAMED
+    }
+
+    public static class Duplicate {
+        private final Path source;
+        private final Path dest;
+        private final Kind kind;
+
+        Duplicate(final Path source, final Path dest, final Kind kind) {
+            this.source = source;
+            this.dest = dest;
+            this.kind = kind;
+        }
+
+        public Path getSource() {
+            return this.source;
+        }
+
+        // the occupying file, or the new destination of a renamed file
+        public Path getDest() {
+            return this.dest;
+        }
+
+        public Kind getKind() {
+            return this.kind;
+        }
+    }
+
+    private static class Occupant {
+        final FileHash hash;
+        final Path dest;
+
+        Occupant(final FileHash hash, final Path dest) {
+            this.hash = hash;
+            this.dest = dest;
+        }
+    }
+
+    private final PayloadHasher hasher;
+    private final LibraryIndex library;
+    private final int threads;
+    private final Timer hashTimer;
+    private final Counter identical;
+    private final Counter retagged;
+    private final Counter renamed;
+    private final List<Duplicate> duplicates = new ArrayList<>();
+
+    public DuplicateResolver(final PayloadHasher hasher, final int threads, final Metrics metrics) {
+        this(hasher, threads, metrics, null);
+    }
+
+    // library: index of the output tree, null for none
+    public DuplicateResolver(final PayloadHasher hasher, final int threads, final Metrics metrics,
+            final LibraryIndex library) {
+        super();
+        this.hasher = hasher;
+        this.library = library;
+        this.threads = Math.max(1, threads);
+        this.hashTimer = metrics.timer("hash");
+        this.identical = metrics.counter("duplicates.identical");
+        this.retagged = metrics.counter("duplicates.retagged");
+        this.renamed = metrics.counter("duplicates.renamed");
+    }
+
+    public List<Duplicate> getDuplicates() {
+        return Collections.unmodifiableList(this.duplicates);
+    }
+
+    // Destinations are first counted in a PathTrie, which shares their
+    // folders; the entries of a repeated or existing destination are then
+    // grouped in a second pass, so only collisions are held as objects.
+    public MovePlan resolve(final MovePlan plan) throws IOException {
+        final PathTrie dests = new PathTrie();
+        boolean repeated = false;
+        // only folders that exist can hold colliding files
+        final Map<Path, Boolean> folders = new HashMap<>();
+        final Set<Path> existing = new HashSet<>();
+        for (final SortEntry entry : plan.getEntries()) {
+            if (!entry.isFailed()) {
+                final Path dest = entry.getDest().toAbsolutePath();
+                final int node = dests.intern(dest);
+                final int seen = dests.getValue(node);
+                if (seen == PathTrie.NONE) {
+                    dests.setValue(node, 1);
+                    if (isIndexed(dest)
+                            || folders.computeIfAbsent(dest.getParent(), Files::isDirectory) && Files.exists(dest)) {
+                        existing.add(dest);
+                    }
+                } else {
+                    dests.setValue(node, seen + 1);
+                    repeated = true;
+                }
+            }
+        }
+        final Map<Path, List<SortEntry>> byDest = new HashMap<>();
+        if (repeated || !existing.isEmpty()) {
+            for (final SortEntry entry : plan.getEntries()) {
+                if (!entry.isFailed()) {
+                    final Path dest = entry.getDest().toAbsolutePath();
+                    if (existing.contains(dest) || dests.getValue(dests.find(dest)) > 1) {
+                        byDest.computeIfAbsent(dest, k -> new ArrayList<>(2)).add(entry);
+                    }
+                }
+            }
+        }
+        final Set<Path> toHash = new HashSet<>();
+        for (final Map.Entry<Path, List<SortEntry>> e : byDest.entrySet()) {
+            final Path dest = e.getKey();
+            final boolean exists = existing.contains(dest);
+            if (exists || e.getValue().size() > 1) {
+                if (exists) {
+                    toHash.add(dest);
+                }
+                for (final SortEntry entry : e.getValue()) {
+                    toHash.add(entry.getSource());
+                }
+            }
+        }
+        if (toHash.isEmpty()) {
+            return plan;
+        }
+        final Map<Path, Future<FileHash>> hashes = hashAll(toHash);
+        try {
+            return resolve(plan, dests, existing, hashes);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("hashing interrupted");
+        }
+    }
+
+    private MovePlan resolve(final MovePlan plan, final PathTrie taken, final Set<Path> existing,
+            final Map<Path, Future<FileHash>> hashes) throws IOException, InterruptedException {
+        final MovePlan resolved = new MovePlan(plan.getMaxEntries());
+        final Map<Path, List<Occupant>> occupants = new HashMap<>();
+        for (final SortEntry entry : plan.getEntries()) {
+            final Future<FileHash> future = entry.isFailed() ? null : hashes.get(entry.getSource());
+            if (future == null) {
+                resolved.add(entry);
+                continue;
+            }
+            final Path dest = entry.getDest().toAbsolutePath();
+            final FileHash hash;
+            List<Occupant> list;
+            try {
+                hash = get(future);
+                list = occupants.get(dest);
+                if (list == null) {
+                    list = new ArrayList<>(2);
+                    final FileHash occupant = existing.contains(dest) ? getOccupant(dest, hashes.get(dest)) : null;
+                    if (occupant != null) {
+                        list.add(new Occupant(occupant, dest));
+                    }
+                    occupants.put(dest, list);
+                }
+            } catch (final IOException e) {
+                resolved.add(new SortEntry(entry.getSource(), null, "cannot hash: " + e.getMessage()));
+                continue;
+            }
+            Occupant same = null;
+            Occupant retag = null;
+            for (final Occupant o : list) {
+                if (hash.isIdentical(o.hash)) {
+                    same = o;
+                    break;
+                } else if (retag == null && hash.isSamePayload(o.hash)) {
+                    retag = o;
+                }
+            }
+            if (same != null) {
+                this.identical.increment();
+                this.duplicates.add(new Duplicate(entry.getSource(), same.dest, Kind.IDENTICAL));
+                resolved.add(new SortEntry(entry.getSource(), null, "identical to " + same.dest));
+            } else if (retag != null) {
+                this.retagged.increment();
+                this.duplicates.add(new Duplicate(entry.getSource(), retag.dest, Kind.RETAGGED));
+                resolved.add(new SortEntry(entry.getSource(), null, "retagged copy of " + retag.dest));
+            } else if (list.isEmpty()) {
+                list.add(new Occupant(hash, dest));
+                resolved.add(entry);
+            } else {
+                final Path free = suffixed(dest, taken);
+                taken.setValue(taken.intern(free), 1);
+                list.add(new Occupant(hash, free));
+                this.renamed.increment();
+                this.duplicates.add(new Duplicate(entry.getSource(), free, Kind.RENAMED));
+                resolved.add(new SortEntry(entry.getSource(), free, null, entry.getTag()));
+            }
+        }
+        return resolved;
+    }
+
+    private Map<Path, Future<FileHash>> hashAll(final Set<Path> files) {
+        final ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        final Map<Path, Future<FileHash>> hashes = new HashMap<>();
+        try {
+            for (final Path file : files) {
+                hashes.put(file, executor.submit(() -> {
+                    final long start = this.hashTimer.start();
+                    final FileHash hash = this.hasher.hash(file);
+                    this.hashTimer.stop(start);
+                    return hash;
+                }));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return hashes;
+    }
+
+    private static FileHash get(final Future<FileHash> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private boolean isIndexed(final Path dest) {
+        return this.library != null && this.library.get(dest) != null;
+    }
+
+    // null if the file was only known from the index and is gone; its record
+    // is dropped
+    private FileHash getOccupant(final Path dest, final Future<FileHash> future)
+            throws IOException, InterruptedException {
+        try {
+            return get(future);
+        } catch (final NoSuchFileException e) {
+            if (!isIndexed(dest)) {
+                throw e;
+            }
+            this.library.remove(dest);
+            return null;
+        }
+    }
+
+    // "name.ext" becomes "name_2.ext", "name_3.ext", ... in the cleaned style
+    private Path suffixed(final Path dest, final PathTrie taken) {
+        final String name = dest.getFileName().toString();
+        final int dot = name.lastIndexOf('.');
+        final String base = dot < 0 ? name : name.substring(0, dot);
+        final String ext = dot < 0 ? "" : name.substring(dot);
+        for (int i = 2;; i++) {
+            final Path candidate = dest.resolveSibling(base + "_" + i + ext);
+            final int node = taken.find(candidate);
+            if ((node == PathTrie.NONE || taken.getValue(node) == PathTrie.NONE) && !isIndexed(candidate)
+                    && !Files.exists(candidate)) {
+                return candidate;
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.element54.sorter.duplicate;
+
+import java.util.Arrays;
+
+// Digest of the whole file and of its audio payload alone: equal payloads
+// with different files are the same recording with other tags.
+public class FileHash {
+    private final byte[] payload;
+    private final byte[] full;
+
+    public FileHash(final byte[] payload, final byte[] full) {
+        super();
+        this.payload = payload;
+        this.full = full;
+    }
+
+    public byte[] getPayload() {
+        return this.payload;
+    }
+
+    public byte[] getFull() {
+        return this.full;
+    }
+
+    public boolean isIdentical(final FileHash other) {
+        return Arrays.equals(this.full, other.full);
+    }
+
+    public boolean isSamePayload(final FileHash other) {
+        return Arrays.equals(this.payload, other.payload);
+    }
+}
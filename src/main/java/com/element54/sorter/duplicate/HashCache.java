@@ -0,0 +1,42 @@
+package com.element54.sorter.duplicate;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import com.element54.utils.cache.FileCache;
+
+public class HashCache extends FileCache<FileHash> {
+    private static final int MAGIC = 0x4d534843;
+    // 2: keys as length prefixed utf-8
+    private static final int VERSION = 2;
+
+    private static final Codec<FileHash> CODEC = new Codec<FileHash>() {
+        @Override
+        public void write(final DataOutputStream out, final FileHash hash) throws IOException {
+            writeBytes(out, hash.getPayload());
+            writeBytes(out, hash.getFull());
+        }
+
+        @Override
+        public FileHash read(final DataInputStream in) throws IOException {
+            return new FileHash(readBytes(in), readBytes(in));
+        }
+    };
+
+    public HashCache(final Path file, final int maxEntries) {
+        super(file, MAGIC, VERSION, maxEntries, CODEC);
+    }
+
+    private static byte[] readBytes(final DataInputStream in) throws IOException {
+        final byte[] b = new byte[in.readUnsignedByte()];
+        in.readFully(b);
+        return b;
+    }
+
+    private static void writeBytes(final DataOutputStream out, final byte[] b) throws IOException {
+        out.writeByte(b.length);
+        out.write(b);
+    }
+}
@@ -0,0 +1,115 @@
+package com.element54.sorter.duplicate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.element54.sorter.tags.impl.TagChannels;
+
+// Hashes a file in one sequential pass, feeding the whole file to one digest
+// and only the audio payload to the other. The payload excludes a leading
+// ID3v2 tag, FLAC metadata blocks behind it and a trailing ID3v1 tag; other
+// containers are hashed as a whole.
+public class PayloadHasher {
+    private static final int CHUNK_LENGTH = 256 * 1024;
+    private static final int ID3V1_LENGTH = 128;
+
+    private final HashCache cache;
+
+    public PayloadHasher(final HashCache cache) {
+        super();
+        this.cache = cache;
+    }
+
+    public FileHash hash(final Path file) throws IOException {
+        final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        final String key = file.toAbsolutePath().toString();
+        final long modified = attrs.lastModifiedTime().toMillis();
+        if (this.cache != null) {
+            final FileHash hash = this.cache.get(key, attrs.size(), modified);
+            if (hash != null) {
+                return hash;
+            }
+        }
+        final FileHash hash = compute(file);
+        if (this.cache != null) {
+            this.cache.put(key, attrs.size(), modified, hash);
+        }
+        return hash;
+    }
+
+    private static FileHash compute(final Path file) throws IOException {
+        final MessageDigest full = digest();
+        final MessageDigest payload = digest();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final long start = payloadStart(channel);
+            final long end = payloadEnd(channel, size, start);
+            final byte[] b = new byte[CHUNK_LENGTH];
+            final ByteBuffer buf = ByteBuffer.wrap(b);
+            long pos = 0;
+            while (true) {
+                buf.clear();
+                final int n = channel.read(buf, pos);
+                if (n < 0) {
+                    break;
+                }
+                full.update(b, 0, n);
+                final long from = Math.max(pos, start);
+                final long to = Math.min(pos + n, end);
+                if (from < to) {
+                    payload.update(b, (int) (from - pos), (int) (to - from));
+                }
+                pos += n;
+            }
+        }
+        return new FileHash(payload.digest(), full.digest());
+    }
+
+    private static long payloadStart(final FileChannel channel) throws IOException {
+        final byte[] header = new byte[10];
+        long pos = 0;
+        if (TagChannels.read(channel, 0, header, 0, header.length) == 10 && header[0] == 'I' && header[1] == 'D' && header[2] == '3') {
+            final int footer = header[3] == 4 && (header[5] & 0x10) != 0 ? 10 : 0;
+            pos = 10 + (((header[6] & 0x7f) << 21) | ((header[7] & 0x7f) << 14) | ((header[8] & 0x7f) << 7)
+                    | (header[9] & 0x7f)) + footer;
+        }
+        if (TagChannels.read(channel, pos, header, 0, header.length) >= 4 && header[0] == 'f' && header[1] == 'L' && header[2] == 'a'
+                && header[3] == 'C') {
+            pos += 4;
+            while (TagChannels.read(channel, pos, header, 0, header.length) >= 4) {
+                pos += 4 + (((header[1] & 0xff) << 16) | ((header[2] & 0xff) << 8) | (header[3] & 0xff));
+                if ((header[0] & 0x80) != 0) {
+                    break;
+                }
+            }
+        }
+        return pos;
+    }
+
+    private static long payloadEnd(final FileChannel channel, final long size, final long start) throws IOException {
+        if (size - ID3V1_LENGTH < start) {
+            return size;
+        }
+        final byte[] trailer = new byte[3];
+        if (TagChannels.read(channel, size - ID3V1_LENGTH, trailer, 0, trailer.length) == 3 && trailer[0] == 'T' && trailer[1] == 'A'
+                && trailer[2] == 'G') {
+            return size - ID3V1_LENGTH;
+        }
+        return size;
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
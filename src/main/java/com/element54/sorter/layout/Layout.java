@@ -0,0 +1,93 @@
+package com.element54.sorter.layout;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.element54.sorter.tags.AudioTag;
+
+// A list of rules, the first one whose condition holds decides the path of a
+// file. One rule per line:
+//
+//   condition [require field,...] => Folder/{field}/.../{field} file name
+//
+// Conditions are "*", "audiobook", "music", "compilation", a field or
+// "custom:KEY" (present), negated with "!" and combined with "&". Required
+// fields are checked in the given order before the template is evaluated.
+// Template placeholders are {field} (required), {field?text} (value followed
+// by text, nothing if missing), {field|default} and, for numbers,
+// {field:000} (zero padded). Each "/" separated segment is one folder name,
+// the last one is the file name. Lines starting with "#" are comments.
+public class Layout {
+
+    // the layout of StructuredSorterService, which names a compilation
+    // folder "null NAME" when the year is missing
+    public static final String DEFAULT = String.join("\n",
+            "audiobook & custom:NOYEAR require artist,albumArtist,track,album"
+                    + " => Audiobooks/{albumArtist}/{year? }{album}/{disk?-}{track:000}",
+            "audiobook require artist,albumArtist,track,year,album"
+                    + " => Audiobooks/{albumArtist}/{year} {album}/{disk?-}{track:000}",
+            "music & compilation & custom:COMPILATIONNAME & custom:NOYEAR require artist,album,title,track"
+                    + " => Music/Compilations/{custom:COMPILATIONGROUP|Other}"
+                    + "/{year|null} {custom:COMPILATIONNAME}"
+                    + "/{disk?-}{track:00} {title}",
+            "music & compilation & custom:COMPILATIONNAME require artist,year,album,title,track"
+                    + " => Music/Compilations/{custom:COMPILATIONGROUP|Other}/{year} {custom:COMPILATIONNAME}"
+                    + "/{disk?-}{track:00} {title}",
+            "music & compilation & custom:NOYEAR require artist,album,title,track"
+                    + " => Music/Compilations/{custom:COMPILATIONGROUP|Other}/{year? }{album}/{disk?-}{track:00} {title}",
+            "music & compilation require artist,year,album,title,track"
+                    + " => Music/Compilations/{custom:COMPILATIONGROUP|Other}/{year} {album}/{disk?-}{track:00} {title}",
+            "music & custom:SINGLE require artist,title => Music/Singles/{artist}/{title}",
+            "music & custom:NOYEAR require artist,albumArtist,album,title,track"
+                    + " => Music/Artists/{albumArtist}/{year? }{album}/{disk?-}{track:00} {title}",
+            "music require artist,albumArtist,year,album,title,track"
+                    + " => Music/Artists/{albumArtist}/{year} {album}/{disk?-}{track:00} {title}");
+
+    private final List<LayoutRule> rules;
+
+    private Layout(final List<LayoutRule> rules) {
+        this.rules = rules;
+    }
+
+    public List<LayoutRule> getRules() {
+        return Collections.unmodifiableList(this.rules);
+    }
+
+    public LayoutRule match(final AudioTag tag) {
+        for (final LayoutRule rule : this.rules) {
+            if (rule.matches(tag)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    public static Layout load(final Path file) throws IOException {
+        return parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+
+    public static Layout parse(final String text) {
+        final List<LayoutRule> rules = new ArrayList<>();
+        final String[] lines = text.split("\r?\n");
+        for (int i = 0; i < lines.length; i++) {
+            final String line = lines[i].trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                rules.add(LayoutRule.parse(line));
+            } catch (final IllegalArgumentException e) {
+                throw new IllegalArgumentException("line " + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        if (rules.isEmpty()) {
+            throw new IllegalArgumentException("layout without rules");
+        }
+        return new Layout(rules);
+    }
+}
@@ -0,0 +1,79 @@
+package com.element54.sorter.layout;
+
+import java.util.Locale;
+
+import com.element54.sorter.tags.AudioTag;
+
+// A tag field or custom key referenced by a layout, resolved to its accessor
+// when the layout is parsed.
+public class LayoutField {
+    private enum Kind {
+        ARTIST, ALBUM_ARTIST, ALBUM, TITLE, YEAR, TRACK, DISK, CUSTOM
+    }
+
+    private final Kind kind;
+    private final String key;
+    private final String name;
+
+    private LayoutField(final Kind kind, final String key, final String name) {
+        this.kind = kind;
+        this.key = key;
+        this.name = name;
+    }
+
+    public static LayoutField parse(final String name) {
+        final String n = name.trim();
+        if (n.startsWith("custom:") && n.length() > 7) {
+            return new LayoutField(Kind.CUSTOM, n.substring(7), n);
+        }
+        switch (n.toLowerCase(Locale.ROOT)) {
+        case "artist":
+            return new LayoutField(Kind.ARTIST, null, "artist");
+        case "albumartist":
+            return new LayoutField(Kind.ALBUM_ARTIST, null, "albumartist");
+        case "album":
+            return new LayoutField(Kind.ALBUM, null, "album");
+        case "title":
+            return new LayoutField(Kind.TITLE, null, "title");
+        case "year":
+            return new LayoutField(Kind.YEAR, null, "year");
+        case "track":
+            return new LayoutField(Kind.TRACK, null, "track");
+        case "disk":
+        case "disc":
+            return new LayoutField(Kind.DISK, null, "disk");
+        default:
+            throw new IllegalArgumentException("unknown field " + name);
+        }
+    }
+
+    // the name used in "... lacks" messages
+    public String getName() {
+        return this.name;
+    }
+
+    public boolean isNumber() {
+        return this.kind == Kind.YEAR || this.kind == Kind.TRACK || this.kind == Kind.DISK;
+    }
+
+    public Object get(final AudioTag tag) {
+        switch (this.kind) {
+        case ARTIST:
+            return tag.getArtist();
+        case ALBUM_ARTIST:
+            return tag.getAlbumArtist();
+        case ALBUM:
+            return tag.getAlbum();
+        case TITLE:
+            return tag.getTitle();
+        case YEAR:
+            return tag.getYear();
+        case TRACK:
+            return tag.getTrack();
+        case DISK:
+            return tag.getDisk();
+        default:
+            return tag.getCustom(this.key);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.element54.sorter.layout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.element54.sorter.SorterServiceException;
+import com.element54.sorter.tags.AudioTag;
+
+// One parsed rule: condition, required fields and the template segments,
+// compiled into plain objects so evaluating a file is only field lookups and
+// appends to a reused builder.
+public class LayoutRule {
+
+    private interface Condition {
+        boolean test(AudioTag tag);
+    }
+
+    private static final class Part {
+        final String literal;
+        final LayoutField field;
+        final int width;
+        final String suffix;
+        final String fallback;
+
+        Part(final String literal, final LayoutField field, final int width, final String suffix,
+                final String fallback) {
+            this.literal = literal;
+            this.field = field;
+            this.width = width;
+            this.suffix = suffix;
+            this.fallback = fallback;
+        }
+    }
+
+    private static final ThreadLocal<StringBuilder> BUILDER = ThreadLocal.withInitial(StringBuilder::new);
+
+    private final Condition[] conditions;
+    private final LayoutField[] required;
+    private final Part[][] segments;
+
+    private LayoutRule(final Condition[] conditions, final LayoutField[] required, final Part[][] segments) {
+        this.conditions = conditions;
+        this.required = required;
+        this.segments = segments;
+    }
+
+    public boolean matches(final AudioTag tag) {
+        for (final Condition c : this.conditions) {
+            if (!c.test(tag)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void checkRequired(final AudioTag tag) throws SorterServiceException {
+        for (final LayoutField field : this.required) {
+            if (field.get(tag) == null) {
+                throw new SorterServiceException(field.getName() + " lacks", null, tag.getFile());
+            }
+        }
+    }
+
+    public int getSegmentCount() {
+        return this.segments.length;
+    }
+
+    public String evaluate(final int segment, final AudioTag tag) throws SorterServiceException {
+        final StringBuilder sb = BUILDER.get();
+        sb.setLength(0);
+        for (final Part part : this.segments[segment]) {
+            if (part.field == null) {
+                sb.append(part.literal);
+                continue;
+            }
+            final Object value = part.field.get(tag);
+            if (value == null) {
+                if (part.fallback != null) {
+                    sb.append(part.fallback);
+                } else if (part.suffix == null) {
+                    throw new SorterServiceException(part.field.getName() + " lacks", null, tag.getFile());
+                }
+                continue;
+            }
+            if (part.width > 0 && value instanceof Integer) {
+                // the sign goes before the zeros, like DecimalFormat("00")
+                long n = (Integer) value;
+                if (n < 0) {
+                    sb.append('-');
+                    n = -n;
+                }
+                for (int w = digits(n); w < part.width; w++) {
+                    sb.append('0');
+                }
+                sb.append(n);
+            } else {
+                sb.append(value);
+            }
+            if (part.suffix != null) {
+                sb.append(part.suffix);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int digits(final long n) {
+        int d = 1;
+        for (long v = n; v >= 10; v /= 10) {
+            d++;
+        }
+        return d;
+    }
+
+    static LayoutRule parse(final String line) {
+        final int arrow = line.indexOf("=>");
+        if (arrow < 0) {
+            throw new IllegalArgumentException("missing =>");
+        }
+        String head = line.substring(0, arrow).trim();
+        final String template = line.substring(arrow + 2).trim();
+        LayoutField[] required = new LayoutField[0];
+        final int require = head.indexOf(" require ");
+        if (require >= 0) {
+            final String[] names = head.substring(require + 9).split(",");
+            required = new LayoutField[names.length];
+            for (int i = 0; i < names.length; i++) {
+                required[i] = LayoutField.parse(names[i]);
+            }
+            head = head.substring(0, require).trim();
+        }
+        return new LayoutRule(parseConditions(head), required, parseTemplate(template));
+    }
+
+    private static Condition[] parseConditions(final String head) {
+        final List<Condition> conditions = new ArrayList<>();
+        for (String atom : head.split("&")) {
+            atom = atom.trim();
+            final boolean negate = atom.startsWith("!");
+            if (negate) {
+                atom = atom.substring(1).trim();
+            }
+            final Condition c;
+            switch (atom) {
+            case "*":
+                c = tag -> true;
+                break;
+            case "audiobook":
+                c = AudioTag::isAudiobook;
+                break;
+            case "music":
+                c = AudioTag::isMusic;
+                break;
+            case "compilation":
+                c = AudioTag::isCompilation;
+                break;
+            default:
+                final LayoutField field = LayoutField.parse(atom);
+                c = tag -> field.get(tag) != null;
+                break;
+            }
+            conditions.add(negate ? tag -> !c.test(tag) : c);
+        }
+        return conditions.toArray(new Condition[conditions.size()]);
+    }
+
+    private static Part[][] parseTemplate(final String template) {
+        if (template.isEmpty()) {
+            throw new IllegalArgumentException("empty template");
+        }
+        final List<Part[]> segments = new ArrayList<>();
+        final List<Part> parts = new ArrayList<>();
+        final StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < template.length()) {
+            final char c = template.charAt(i);
+            if (c == '/') {
+                flush(literal, parts);
+                if (parts.isEmpty()) {
+                    throw new IllegalArgumentException("empty path segment");
+                }
+                segments.add(parts.toArray(new Part[parts.size()]));
+                parts.clear();
+                i++;
+            } else if (c == '{') {
+                final int end = template.indexOf('}', i);
+                if (end < 0) {
+                    throw new IllegalArgumentException("unclosed {");
+                }
+                flush(literal, parts);
+                parts.add(parsePlaceholder(template.substring(i + 1, end)));
+                i = end + 1;
+            } else if (c == '}') {
+                throw new IllegalArgumentException("unexpected }");
+            } else {
+                literal.append(c);
+                i++;
+            }
+        }
+        flush(literal, parts);
+        if (parts.isEmpty()) {
+            throw new IllegalArgumentException("empty file name");
+        }
+        segments.add(parts.toArray(new Part[parts.size()]));
+        return segments.toArray(new Part[segments.size()][]);
+    }
+
+    // name[:000][?suffix|default]
+    private static Part parsePlaceholder(final String s) {
+        int end = s.length();
+        String suffix = null;
+        String fallback = null;
+        final int q = s.indexOf('?');
+        final int bar = s.indexOf('|');
+        if (q >= 0 && (bar < 0 || q < bar)) {
+            suffix = s.substring(q + 1);
+            end = q;
+        } else if (bar >= 0) {
+            fallback = s.substring(bar + 1);
+            end = bar;
+        }
+        String name = s.substring(0, end);
+        int width = 0;
+        // the colon of "custom:KEY" is not a format
+        final int colon = name.lastIndexOf(':');
+        if (colon > (name.startsWith("custom:") ? 6 : -1)) {
+            final String format = name.substring(colon + 1);
+            if (!format.matches("0+")) {
+                throw new IllegalArgumentException("unknown number format " + format);
+            }
+            width = format.length();
+            name = name.substring(0, colon);
+        }
+        final LayoutField field = LayoutField.parse(name);
+        if (width > 0 && !field.isNumber()) {
+            throw new IllegalArgumentException("number format on text field " + name);
+        }
+        return new Part(null, field, width, suffix, fallback);
+    }
+
+    private static void flush(final StringBuilder literal, final List<Part> parts) {
+        if (literal.length() > 0) {
+            parts.add(new Part(literal.toString(), null, 0, null, null));
+            literal.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.element54.sorter.layout;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import com.element54.sorter.SortEntry;
+import com.element54.sorter.SorterService;
+import com.element54.sorter.SorterServiceException;
+import com.element54.sorter.tags.AudioTag;
+import com.element54.sorter.tags.AudioTagService;
+import com.element54.utils.file.FileNameCleaner;
+import com.element54.utils.file.PathUtils;
+
+public class TemplateSorterService implements SorterService {
+
+    private final AudioTagService audioTagService;
+    private final FileNameCleaner fileNameCleaner;
+    private final Layout layout;
+
+    public TemplateSorterService(AudioTagService audioTagService, FileNameCleaner fileNameCleaner, Layout layout) {
+        super();
+        this.audioTagService = audioTagService;
+        this.fileNameCleaner = fileNameCleaner;
+        this.layout = layout;
+    }
+
+    @Override
+    public Path getFile(Path file, Path destFolder) throws SorterServiceException {
+        return getFile(file, readTag(file), destFolder);
+    }
+
+    @Override
+    public SortEntry getEntry(Path file, Path destFolder) throws SorterServiceException {
+        final AudioTag tag = readTag(file);
+        return new SortEntry(file, getFile(file, tag, destFolder), null, tag);
+    }
+
+    private AudioTag readTag(final Path file) throws SorterServiceException {
+        try {
+            return this.audioTagService.readTag(file);
+        } catch (final IOException e) {
+            throw new SorterServiceException("cannot read tags", e, file);
+        }
+    }
+
+    private Path getFile(final Path file, final AudioTag tag, final Path destFolder) throws SorterServiceException {
+        final LayoutRule rule = this.layout.match(tag);
+        if (rule == null) {
+            throw new SorterServiceException("unknown audiotype " + tag.getAudioType(), null, file);
+        }
+        rule.checkRequired(tag);
+        final String ext = PathUtils.getExtension(file);
+        final int last = rule.getSegmentCount() - 1;
+        try {
+            Path path = destFolder;
+            for (int i = 0; i < last; i++) {
+                path = this.fileNameCleaner.create(path, rule.evaluate(i, tag));
+            }
+            return this.fileNameCleaner.create(path, rule.evaluate(last, tag), ext);
+        } catch (final IOException e) {
+            throw new SorterServiceException("IOException", e, file);
+        }
+    }
+}
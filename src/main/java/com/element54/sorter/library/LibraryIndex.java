@@ -0,0 +1,301 @@
+package com.element54.sorter.library;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import com.element54.utils.file.FramedLog;
+
+// Index of the output tree kept in memory and persisted as a compacted
+// snapshot plus an append-only log of changes. Every change is one log
+// frame with length and checksum; a torn frame at the end of the log (crash
+// while writing) is dropped when the log is replayed. Changes are forced in
+// groups like the commits of the move journal; a crash loses at most the
+// last group, and a destination missing from the index is still found on
+// disk by the collision check. Once the log grows large it is folded into a
+// new snapshot on close. An index in the previous format is read and
+// rewritten in the current one when opened.
+public class LibraryIndex implements Closeable {
+    private static final int MAGIC = 0x4d534c49;
+    private static final int VERSION = 2;
+    private static final int MIN_VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int MIN_COMPACT = 1000;
+    private static final int GROUP_SIZE = 256;
+    private static final long GROUP_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final Path snapshot;
+    private final Path log;
+    private final TreeMap<String, LibraryRecord> records = new TreeMap<>();
+    private final Map<String, List<LibraryRecord>> tracks = new HashMap<>();
+    private final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+    private FileChannel logChannel;
+    private int logCount;
+    private int unforced;
+    private long lastForce = System.nanoTime();
+    private int replayed;
+    private boolean upgrade;
+
+    public LibraryIndex(final Path file) {
+        super();
+        this.snapshot = file;
+        this.log = file.resolveSibling(file.getFileName() + ".log");
+    }
+
+    public synchronized void open() throws IOException {
+        if (Files.exists(this.snapshot)) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(this.snapshot))) {
+                replay(in);
+            }
+        }
+        long valid = 0;
+        if (Files.exists(this.log)) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(this.log))) {
+                valid = replay(in);
+            }
+            this.logCount = this.replayed;
+        }
+        this.logChannel = FileChannel.open(this.log, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (valid < HEADER_LENGTH) {
+            this.logChannel.truncate(0);
+            writeHeader(this.logChannel);
+        } else {
+            this.logChannel.truncate(valid);
+            this.logChannel.position(valid);
+        }
+        if (this.upgrade) {
+            compact();
+            this.upgrade = false;
+        }
+    }
+
+    public synchronized int size() {
+        return this.records.size();
+    }
+
+    public synchronized LibraryRecord get(final Path dest) {
+        return this.records.get(key(dest));
+    }
+
+    // records of a track, album artist and album compared ignoring case
+    public synchronized List<LibraryRecord> find(final String albumArtist, final String album, final Integer disk,
+            final Integer track) {
+        final List<LibraryRecord> list = this.tracks.get(trackKey(albumArtist, album, disk, track));
+        return list == null ? Collections.<LibraryRecord>emptyList() : new ArrayList<>(list);
+    }
+
+    // all records below the folder, in path order
+    public synchronized List<LibraryRecord> list(final Path folder) {
+        final String prefix = key(folder) + File.separator;
+        return new ArrayList<>(this.records.subMap(prefix, prefix + Character.MAX_VALUE).values());
+    }
+
+    public synchronized void put(final LibraryRecord record) throws IOException {
+        final DataOutputStream out = begin(PUT);
+        record.write(out);
+        append(out);
+        apply(record);
+    }
+
+    public synchronized void remove(final Path dest) throws IOException {
+        final String key = key(dest);
+        if (!this.records.containsKey(key)) {
+            return;
+        }
+        final DataOutputStream out = begin(REMOVE);
+        out.writeUTF(key);
+        append(out);
+        unapply(key);
+    }
+
+    public synchronized void sync() throws IOException {
+        this.logChannel.force(false);
+        this.unforced = 0;
+        this.lastForce = System.nanoTime();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.logChannel == null) {
+            return;
+        }
+        try {
+            sync();
+            if (this.logCount > Math.max(MIN_COMPACT, this.records.size() / 4)) {
+                compact();
+            }
+        } finally {
+            this.logChannel.close();
+            this.logChannel = null;
+        }
+    }
+
+    // The new snapshot replaces the old one atomically before the log is
+    // emptied; replaying the old log over the new snapshot is harmless.
+    public synchronized void compact() throws IOException {
+        final Path tmp = this.snapshot.resolveSibling(this.snapshot.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (final LibraryRecord record : this.records.values()) {
+                record.write(begin(PUT));
+                writeFrame(out);
+            }
+            out.flush();
+            channel.force(false);
+        }
+        Files.move(tmp, this.snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.logChannel.truncate(0);
+        this.logChannel.position(0);
+        writeHeader(this.logChannel);
+        this.logChannel.force(false);
+        this.logCount = 0;
+    }
+
+    private DataOutputStream begin(final byte type) throws IOException {
+        this.frame.reset();
+        final DataOutputStream out = new DataOutputStream(this.frame);
+        out.writeByte(type);
+        return out;
+    }
+
+    // a frame written in part is cut off again, later frames would be lost
+    // behind it on replay
+    private void append(final DataOutputStream out) throws IOException {
+        out.flush();
+        final ByteBuffer buf = frameBuffer();
+        final long position = this.logChannel.position();
+        try {
+            while (buf.hasRemaining()) {
+                this.logChannel.write(buf);
+            }
+        } catch (final IOException e) {
+            this.logChannel.truncate(position);
+            this.logChannel.position(position);
+            throw e;
+        }
+        this.logCount++;
+        this.unforced++;
+        if (this.unforced >= GROUP_SIZE || System.nanoTime() - this.lastForce >= GROUP_NANOS) {
+            sync();
+        }
+    }
+
+    private void writeFrame(final DataOutputStream out) throws IOException {
+        final ByteBuffer buf = frameBuffer();
+        out.write(buf.array(), 0, buf.limit());
+    }
+
+    private ByteBuffer frameBuffer() {
+        return FramedLog.frame(this.frame.toByteArray(), this.frame.size());
+    }
+
+    private static void writeHeader(final FileChannel channel) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    // returns the length of the valid prefix of the stream
+    private long replay(final InputStream stream) throws IOException {
+        final DataInputStream in = new DataInputStream(stream);
+        final int version;
+        try {
+            if (in.readInt() != MAGIC) {
+                return 0;
+            }
+            version = in.readInt();
+        } catch (final EOFException e) {
+            return 0;
+        }
+        if (version < MIN_VERSION || version > VERSION) {
+            return 0;
+        }
+        this.upgrade |= version != VERSION;
+        long valid = HEADER_LENGTH;
+        this.replayed = 0;
+        while (true) {
+            final byte[] body = FramedLog.read(in);
+            if (body == null) {
+                return valid;
+            }
+            final DataInputStream f = new DataInputStream(new ByteArrayInputStream(body));
+            final byte type = f.readByte();
+            if (type == PUT) {
+                apply(LibraryRecord.read(f, version));
+            } else if (type == REMOVE) {
+                unapply(f.readUTF());
+            } else {
+                return valid;
+            }
+            valid += 8 + body.length;
+            this.replayed++;
+        }
+    }
+
+    private void apply(final LibraryRecord record) {
+        unapply(record.getDest());
+        this.records.put(record.getDest(), record);
+        this.tracks.computeIfAbsent(trackKey(record), k -> new ArrayList<>(1)).add(record);
+    }
+
+    private void unapply(final String key) {
+        final LibraryRecord old = this.records.remove(key);
+        if (old != null) {
+            final String trackKey = trackKey(old);
+            final List<LibraryRecord> list = this.tracks.get(trackKey);
+            if (list != null) {
+                list.remove(old);
+                if (list.isEmpty()) {
+                    this.tracks.remove(trackKey);
+                }
+            }
+        }
+    }
+
+    private static String key(final Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    private static String trackKey(final LibraryRecord record) {
+        return trackKey(record.getAlbumArtist(), record.getAlbum(), record.getDisk(), record.getTrack());
+    }
+
+    private static String trackKey(final String albumArtist, final String album, final Integer disk,
+            final Integer track) {
+        return (albumArtist == null ? "" : albumArtist.toLowerCase(Locale.ROOT)) + '\0'
+                + (album == null ? "" : album.toLowerCase(Locale.ROOT)) + '\0' + disk + '\0' + track;
+    }
+}
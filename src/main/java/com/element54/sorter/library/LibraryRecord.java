@@ -0,0 +1,181 @@
+package com.element54.sorter.library;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import com.element54.sorter.tags.AudioTag;
+import com.element54.utils.cache.FileCache;
+
+// One file of the output tree: where it came from, its tag fields, size,
+// modification time and, if known, the hash of its audio payload.
+public class LibraryRecord {
+    private static final int HAS_SOURCE = 1;
+    private static final int HAS_ARTIST = 1 << 1;
+    private static final int HAS_ALBUM_ARTIST = 1 << 2;
+    private static final int HAS_ALBUM = 1 << 3;
+    private static final int HAS_TITLE = 1 << 4;
+    private static final int HAS_YEAR = 1 << 5;
+    private static final int HAS_TRACK = 1 << 6;
+    private static final int HAS_DISK = 1 << 7;
+    private static final int HAS_HASH = 1 << 8;
+
+    private final String dest;
+    private final String source;
+    private final String artist;
+    private final String albumArtist;
+    private final String album;
+    private final String title;
+    private final Integer year;
+    private final Integer track;
+    private final Integer disk;
+    private final long size;
+    private final long modified;
+    private final byte[] hash;
+
+    public LibraryRecord(final String dest, final String source, final String artist, final String albumArtist,
+            final String album, final String title, final Integer year, final Integer track, final Integer disk,
+            final long size, final long modified, final byte[] hash) {
+        super();
+        this.dest = dest;
+        this.source = source;
+        this.artist = artist;
+        this.albumArtist = albumArtist;
+        this.album = album;
+        this.title = title;
+        this.year = year;
+        this.track = track;
+        this.disk = disk;
+        this.size = size;
+        this.modified = modified;
+        this.hash = hash;
+    }
+
+    public LibraryRecord(final String dest, final String source, final AudioTag tag, final long size,
+            final long modified, final byte[] hash) {
+        this(dest, source, tag == null ? null : tag.getArtist(), tag == null ? null : tag.getAlbumArtist(),
+                tag == null ? null : tag.getAlbum(), tag == null ? null : tag.getTitle(),
+                tag == null ? null : tag.getYear(), tag == null ? null : tag.getTrack(),
+                tag == null ? null : tag.getDisk(), size, modified, hash);
+    }
+
+    public String getDest() {
+        return this.dest;
+    }
+
+    public String getSource() {
+        return this.source;
+    }
+
+    public String getArtist() {
+        return this.artist;
+    }
+
+    public String getAlbumArtist() {
+        return this.albumArtist;
+    }
+
+    public String getAlbum() {
+        return this.album;
+    }
+
+    public String getTitle() {
+        return this.title;
+    }
+
+    public Integer getYear() {
+        return this.year;
+    }
+
+    public Integer getTrack() {
+        return this.track;
+    }
+
+    public Integer getDisk() {
+        return this.disk;
+    }
+
+    public long getSize() {
+        return this.size;
+    }
+
+    public long getModified() {
+        return this.modified;
+    }
+
+    public byte[] getHash() {
+        return this.hash;
+    }
+
+    // tag fields are not limited to the 64 KB of writeUTF, paths are
+    void write(final DataOutputStream out) throws IOException {
+        int flags = 0;
+        flags |= this.source != null ? HAS_SOURCE : 0;
+        flags |= this.artist != null ? HAS_ARTIST : 0;
+        flags |= this.albumArtist != null ? HAS_ALBUM_ARTIST : 0;
+        flags |= this.album != null ? HAS_ALBUM : 0;
+        flags |= this.title != null ? HAS_TITLE : 0;
+        flags |= this.year != null ? HAS_YEAR : 0;
+        flags |= this.track != null ? HAS_TRACK : 0;
+        flags |= this.disk != null ? HAS_DISK : 0;
+        flags |= this.hash != null ? HAS_HASH : 0;
+        out.writeShort(flags);
+        out.writeUTF(this.dest);
+        if (this.source != null) {
+            out.writeUTF(this.source);
+        }
+        writeString(out, this.artist);
+        writeString(out, this.albumArtist);
+        writeString(out, this.album);
+        writeString(out, this.title);
+        writeInt(out, this.year);
+        writeInt(out, this.track);
+        writeInt(out, this.disk);
+        out.writeLong(this.size);
+        out.writeLong(this.modified);
+        if (this.hash != null) {
+            out.writeByte(this.hash.length);
+            out.write(this.hash);
+        }
+    }
+
+    // version 1 wrote the tag fields with writeUTF
+    static LibraryRecord read(final DataInputStream in, final int version) throws IOException {
+        final boolean utf = version < 2;
+        final int flags = in.readUnsignedShort();
+        final String dest = in.readUTF();
+        final String source = (flags & HAS_SOURCE) != 0 ? in.readUTF() : null;
+        final String artist = (flags & HAS_ARTIST) != 0 ? readString(in, utf) : null;
+        final String albumArtist = (flags & HAS_ALBUM_ARTIST) != 0 ? readString(in, utf) : null;
+        final String album = (flags & HAS_ALBUM) != 0 ? readString(in, utf) : null;
+        final String title = (flags & HAS_TITLE) != 0 ? readString(in, utf) : null;
+        final Integer year = (flags & HAS_YEAR) != 0 ? in.readInt() : null;
+        final Integer track = (flags & HAS_TRACK) != 0 ? in.readInt() : null;
+        final Integer disk = (flags & HAS_DISK) != 0 ? in.readInt() : null;
+        final long size = in.readLong();
+        final long modified = in.readLong();
+        byte[] hash = null;
+        if ((flags & HAS_HASH) != 0) {
+            hash = new byte[in.readUnsignedByte()];
+            in.readFully(hash);
+        }
+        return new LibraryRecord(dest, source, artist, albumArtist, album, title, year, track, disk, size, modified,
+                hash);
+    }
+
+    private static void writeString(final DataOutputStream out, final String s) throws IOException {
+        if (s != null) {
+            FileCache.writeString(out, s);
+        }
+    }
+
+    private static String readString(final DataInputStream in, final boolean utf) throws IOException {
+        return utf ? in.readUTF() : FileCache.readString(in);
+    }
+
+    private static void writeInt(final DataOutputStream out, final Integer i) throws IOException {
+        if (i != null) {
+            out.writeInt(i);
+        }
+    }
+}
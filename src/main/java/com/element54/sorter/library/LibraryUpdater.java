@@ -0,0 +1,66 @@
+package com.element54.sorter.library;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import com.element54.sorter.SortEntry;
+import com.element54.sorter.duplicate.FileHash;
+import com.element54.sorter.duplicate.HashCache;
+import com.element54.sorter.move.MoveEngine;
+import com.element54.sorter.tags.AudioTag;
+import com.element54.sorter.tags.AudioTagService;
+
+// Records every completed move in the library index. The tag is the one the
+// destination was computed from; only entries that come without one, from a
+// plan file, a spilled plan or a journal, have it read back from the
+// destination. The payload hash is taken from the hash cache when the file
+// was hashed before, files are never read just for the index. A record that
+// cannot be written is reported and skipped; the file has moved by then
+// and the move must not fail for it.
+public class LibraryUpdater implements MoveEngine.Listener {
+    private final LibraryIndex index;
+    private final AudioTagService audioTagService;
+    private final HashCache hashCache;
+
+    public LibraryUpdater(final LibraryIndex index, final AudioTagService audioTagService,
+            final HashCache hashCache) {
+        super();
+        this.index = index;
+        this.audioTagService = audioTagService;
+        this.hashCache = hashCache;
+    }
+
+    @Override
+    public void moved(final SortEntry entry, final long size) {
+        try {
+            update(entry);
+        } catch (final IOException e) {
+            System.err.println("cannot index " + entry.getDest().toAbsolutePath() + ": " + e.getMessage());
+        }
+    }
+
+    private void update(final SortEntry entry) throws IOException {
+        final Path source = entry.getSource();
+        final Path dest = entry.getDest();
+        final BasicFileAttributes attrs = Files.readAttributes(dest, BasicFileAttributes.class);
+        final long modified = attrs.lastModifiedTime().toMillis();
+        AudioTag tag = entry.getTag();
+        if (tag == null) {
+            try {
+                tag = this.audioTagService.readTag(dest);
+            } catch (final IOException e) {
+                tag = null;
+            }
+        }
+        byte[] hash = null;
+        if (this.hashCache != null) {
+            final FileHash fileHash = this.hashCache.get(source.toAbsolutePath().toString(), attrs.size(), modified);
+            hash = fileHash == null ? null : fileHash.getPayload();
+        }
+        final String sourceName = source.toAbsolutePath().normalize().toString();
+        final String destName = dest.toAbsolutePath().normalize().toString();
+        this.index.put(new LibraryRecord(destName, sourceName, tag, attrs.size(), modified, hash));
+    }
+}
@@ -0,0 +1,30 @@
+package com.element54.sorter.metrics;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import com.element54.sorter.tags.AudioTag;
+import com.element54.sorter.tags.AudioTagService;
+import com.element54.utils.metrics.Timer;
+
+public class TimedAudioTagService implements AudioTagService {
+
+    private final AudioTagService audioTagService;
+    private final Timer timer;
+
+    public TimedAudioTagService(final AudioTagService audioTagService, final Timer timer) {
+        super();
+        this.audioTagService = audioTagService;
+        this.timer = timer;
+    }
+
+    @Override
+    public AudioTag readTag(final Path file) throws IOException {
+        final long start = this.timer.start();
+        try {
+            return this.audioTagService.readTag(file);
+        } finally {
+            this.timer.stop(start);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.element54.sorter.metrics;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import com.element54.utils.file.FileNameCleaner;
+import com.element54.utils.metrics.Timer;
+
+public class TimedFileNameCleaner implements FileNameCleaner {
+
+    private final FileNameCleaner fileNameCleaner;
+    private final Timer timer;
+
+    public TimedFileNameCleaner(final FileNameCleaner fileNameCleaner, final Timer timer) {
+        super();
+        this.fileNameCleaner = fileNameCleaner;
+        this.timer = timer;
+    }
+
+    @Override
+    public Path create(final Path parent, final String name, final String extension) throws IOException {
+        final long start = this.timer.start();
+        try {
+            return this.fileNameCleaner.create(parent, name, extension);
+        } finally {
+            this.timer.stop(start);
+        }
+    }
+}
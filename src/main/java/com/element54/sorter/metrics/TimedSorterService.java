@@ -0,0 +1,40 @@
+package com.element54.sorter.metrics;
+
+import java.nio.file.Path;
+
+import com.element54.sorter.SortEntry;
+import com.element54.sorter.SorterService;
+import com.element54.sorter.SorterServiceException;
+import com.element54.utils.metrics.Timer;
+
+public class TimedSorterService implements SorterService {
+
+    private final SorterService sorterService;
+    private final Timer timer;
+
+    public TimedSorterService(final SorterService sorterService, final Timer timer) {
+        super();
+        this.sorterService = sorterService;
+        this.timer = timer;
+    }
+
+    @Override
+    public Path getFile(final Path file, final Path destFolder) throws SorterServiceException {
+        final long start = this.timer.start();
+        try {
+            return this.sorterService.getFile(file, destFolder);
+        } finally {
+            this.timer.stop(start);
+        }
+    }
+
+    @Override
+    public SortEntry getEntry(final Path file, final Path destFolder) throws SorterServiceException {
+        final long start = this.timer.start();
+        try {
+            return this.sorterService.getEntry(file, destFolder);
+        } finally {
+            this.timer.stop(start);
+        }
+    }
+}
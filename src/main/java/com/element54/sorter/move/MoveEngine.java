@@ -0,0 +1,290 @@
+package com.element54.sorter.move;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.element54.sorter.SortEntry;
+import com.element54.utils.concurrent.Workers;
+import com.element54.utils.file.DirectoryCache;
+import com.element54.utils.metrics.Counter;
+import com.element54.utils.metrics.Metrics;
+import com.element54.utils.metrics.Timer;
+
+// Moves files into the output tree. Moves within one file store are plain
+// renames; across file stores the file is copied with transferTo into a
+// ".part" file next to the destination, synced, checked for its size and
+// renamed, and only then the source is deleted. An interrupted copy never
+// leaves a partial file under the destination name nor loses the source.
+public class MoveEngine {
+
+    // called after each completed move, from the moving thread
+    public interface Listener {
+        void moved(SortEntry entry, long size) throws IOException;
+    }
+
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    private static final int MAX_STORES = 4096;
+    private static final Semaphore UNLIMITED = new Semaphore(Integer.MAX_VALUE);
+
+    private final int threads;
+    private final boolean virtualThreads;
+    private final int writesPerStore;
+    private final Map<Path, FileStore> stores = new ConcurrentHashMap<>();
+    private final Map<FileStore, Semaphore> writes = new ConcurrentHashMap<>();
+    private final DirectoryCache directories = new DirectoryCache(100000);
+    private final Counter files;
+    private final Counter bytes;
+    private final Counter failures;
+    private final Timer mkdirTimer;
+    private final Timer moveTimer;
+    private final AtomicLong lastProgress = new AtomicLong(System.nanoTime());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public MoveEngine(final int threads, final Metrics metrics) {
+        this(threads, metrics, false, 0);
+    }
+
+    // threads: moves in flight; virtualThreads: a virtual thread per move
+    // instead of a pool; writesPerStore: concurrent moves into one
+    // destination file store, 0 for no limit
+    public MoveEngine(final int threads, final Metrics metrics, final boolean virtualThreads,
+            final int writesPerStore) {
+        super();
+        this.threads = Math.max(1, threads);
+        this.virtualThreads = virtualThreads;
+        this.writesPerStore = writesPerStore;
+        this.files = metrics.counter("files.moved");
+        this.bytes = metrics.counter("bytes.moved");
+        this.failures = metrics.counter("moves.failed");
+        this.mkdirTimer = metrics.timer("mkdir");
+        this.moveTimer = metrics.timer("move");
+    }
+
+    public void addListener(final Listener listener) {
+        this.listeners.add(listener);
+    }
+
+    public long getFiles() {
+        return this.files.get();
+    }
+
+    public long getBytes() {
+        return this.bytes.get();
+    }
+
+    public long getFailures() {
+        return this.failures.get();
+    }
+
+    public long getCreatedDirectories() {
+        return this.directories.getCreated();
+    }
+
+    // Runs at most threads moves at a time and collects finished ones while
+    // submitting, so only the moves in flight are held. After the first
+    // failure no further moves start; the first error is thrown once the
+    // running ones are done, with the later ones suppressed.
+    public void moveAll(final Iterable<SortEntry> entries) throws IOException {
+        final ExecutorService executor = Workers.create(this.threads, this.virtualThreads);
+        final CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+        final Semaphore inFlight = new Semaphore(this.threads);
+        final AtomicBoolean failed = new AtomicBoolean();
+        IOException error = null;
+        int running = 0;
+        try {
+            for (final SortEntry entry : entries) {
+                if (entry.isFailed()) {
+                    continue;
+                }
+                if (failed.get()) {
+                    break;
+                }
+                inFlight.acquire();
+                completion.submit(() -> {
+                    try {
+                        if (!failed.get()) {
+                            move(entry);
+                        }
+                    } catch (final IOException | RuntimeException e) {
+                        failed.set(true);
+                        throw e;
+                    } finally {
+                        inFlight.release();
+                    }
+                    return null;
+                });
+                running++;
+                Future<Void> done;
+                while ((done = completion.poll()) != null) {
+                    running--;
+                    error = collect(done, error);
+                }
+            }
+            for (; running > 0; running--) {
+                error = collect(completion.take(), error);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("moving interrupted");
+        } finally {
+            executor.shutdownNow();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    // returns the first error, counting this one
+    private IOException collect(final Future<Void> done, final IOException error) throws InterruptedException {
+        try {
+            done.get();
+            return error;
+        } catch (final ExecutionException e) {
+            this.failures.increment();
+            final Throwable cause = e.getCause();
+            if (error != null) {
+                error.addSuppressed(cause);
+                return error;
+            }
+            return cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    public void move(final SortEntry entry) throws IOException {
+        final Path source = entry.getSource();
+        final Path dest = entry.getDest();
+        final Path parent = dest.toAbsolutePath().getParent();
+        final long mkdirStart = this.mkdirTimer.start();
+        this.directories.createDirectories(parent);
+        this.mkdirTimer.stop(mkdirStart);
+        final Semaphore storeWrites = getWrites(parent);
+        try {
+            storeWrites.acquire();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("moving interrupted");
+        }
+        final long start = this.moveTimer.start();
+        long size;
+        try {
+            size = transfer(source, dest, parent);
+        } catch (final NoSuchFileException e) {
+            if (Files.exists(parent) || !Files.exists(source)) {
+                throw e;
+            }
+            // folder removed behind our back
+            this.directories.invalidate(parent);
+            this.directories.createDirectories(parent);
+            size = transfer(source, dest, parent);
+        } finally {
+            storeWrites.release();
+        }
+        this.moveTimer.stop(start);
+        this.files.increment();
+        this.bytes.add(size);
+        for (final Listener l : this.listeners) {
+            l.moved(entry, size);
+        }
+        progress();
+    }
+
+    private long transfer(final Path source, final Path dest, final Path parent) throws IOException {
+        if (getStore(source.toAbsolutePath().getParent()).equals(getStore(parent))) {
+            final long size = Files.size(source);
+            Files.move(source, dest);
+            return size;
+        }
+        final long size = copy(source, dest);
+        Files.delete(source);
+        return size;
+    }
+
+    // a file already named like the part is not ours, the move fails and
+    // leaves it alone
+    private long copy(final Path source, final Path dest) throws IOException {
+        final Path part = dest.resolveSibling(dest.getFileName() + ".part");
+        final FileChannel partChannel;
+        try {
+            partChannel = FileChannel.open(part, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (final FileAlreadyExistsException e) {
+            throw new IOException("cannot copy " + source + ", " + part + " exists", e);
+        }
+        boolean done = false;
+        try {
+            final long size;
+            try (FileChannel out = partChannel; FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                size = in.size();
+                long position = 0;
+                while (position < size) {
+                    final long n = in.transferTo(position, size - position, out);
+                    if (n <= 0) {
+                        break;
+                    }
+                    position += n;
+                }
+                out.force(true);
+                if (out.size() != size || Files.size(source) != size) {
+                    throw new IOException("size mismatch copying " + source + " to " + dest);
+                }
+            }
+            final FileTime modified = Files.getLastModifiedTime(source);
+            Files.move(part, dest);
+            done = true;
+            Files.setLastModifiedTime(dest, modified);
+            return size;
+        } finally {
+            if (!done) {
+                Files.deleteIfExists(part);
+            }
+        }
+    }
+
+    private Semaphore getWrites(final Path dir) throws IOException {
+        if (this.writesPerStore <= 0) {
+            return UNLIMITED;
+        }
+        return this.writes.computeIfAbsent(getStore(dir), s -> new Semaphore(this.writesPerStore));
+    }
+
+    private FileStore getStore(final Path dir) throws IOException {
+        FileStore store = this.stores.get(dir);
+        if (store == null) {
+            store = Files.getFileStore(dir);
+            if (this.stores.size() >= MAX_STORES) {
+                this.stores.clear();
+            }
+            this.stores.put(dir, store);
+        }
+        return store;
+    }
+
+    private void progress() {
+        final long now = System.nanoTime();
+        final long last = this.lastProgress.get();
+        if (now - last >= PROGRESS_INTERVAL && this.lastProgress.compareAndSet(last, now)) {
+            System.out.println("Moved " + this.files.get() + " files, " + this.bytes.get() / (1024 * 1024) + " MB");
+            System.out.flush();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.element54.sorter.move;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.element54.sorter.SortEntry;
+import com.element54.utils.file.FramedLog;
+
+// Write-ahead journal of a move run. The intents of all moves are written
+// and forced before the first file moves; completed moves are committed in
+// groups, so one force covers many files. A commit lost in a crash is
+// harmless: on resume an intent whose source is gone and whose destination
+// exists counts as done. Commits name the source of their move, so nothing
+// per move is kept in memory while moving.
+public class MoveJournal implements MoveEngine.Listener, Closeable {
+    private static final int MAGIC = 0x4d534a4e;
+    private static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 8;
+    private static final byte INTENT = 1;
+    private static final byte DONE = 2;
+    private static final int GROUP_SIZE = 256;
+    private static final long GROUP_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final int COMPARE_LENGTH = 64 * 1024;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final ByteArrayOutputStream group = new ByteArrayOutputStream();
+    private final DataOutputStream groupOut = new DataOutputStream(this.group);
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final List<SortEntry> pending = new ArrayList<>();
+    private final List<String> conflicts = new ArrayList<>();
+    private int groupCount;
+    private long lastForce = System.nanoTime();
+    private int recovered;
+
+    private MoveJournal(final Path file, final FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    public Path getFile() {
+        return this.file;
+    }
+
+    // entries still to move after a resume
+    public List<SortEntry> getPending() {
+        return Collections.unmodifiableList(this.pending);
+    }
+
+    // interrupted moves found complete on disk and committed by the resume
+    public int getRecovered() {
+        return this.recovered;
+    }
+
+    public List<String> getConflicts() {
+        return Collections.unmodifiableList(this.conflicts);
+    }
+
+    public static MoveJournal create(final Path file, final Iterable<SortEntry> entries) throws IOException {
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        final MoveJournal journal = new MoveJournal(file, channel);
+        try {
+            final OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+            out.write(header());
+            for (final SortEntry entry : entries) {
+                if (entry.isFailed()) {
+                    continue;
+                }
+                final ByteBuffer frame = journal.intent(entry.getSource().toAbsolutePath(),
+                        entry.getDest().toAbsolutePath());
+                out.write(frame.array(), 0, frame.limit());
+            }
+            out.flush();
+            channel.force(false);
+        } catch (final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    // Replays the journal and settles every move that was not committed:
+    // leftover ".part" copies of a source are removed, moves complete on disk are committed,
+    // a source still next to an identical destination is deleted, everything
+    // else untouched is pending again. Anything ambiguous is a conflict and
+    // left alone.
+    public static MoveJournal resume(final Path file) throws IOException {
+        // by source
+        final Map<String, SortEntry> intents = new LinkedHashMap<>();
+        long valid = 0;
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(file))) {
+            final DataInputStream in = new DataInputStream(stream);
+            final byte[] header = new byte[HEADER_LENGTH];
+            in.readFully(header);
+            if (!Arrays.equals(header, header())) {
+                throw new IOException("not a move journal: " + file);
+            }
+            valid = HEADER_LENGTH;
+            byte[] body;
+            while ((body = FramedLog.read(in)) != null) {
+                final DataInputStream r = new DataInputStream(new ByteArrayInputStream(body));
+                final byte type = r.readByte();
+                final String source = r.readUTF();
+                if (type == INTENT) {
+                    intents.put(source, new SortEntry(Paths.get(source), Paths.get(r.readUTF()), null));
+                } else if (type == DONE) {
+                    intents.remove(source);
+                }
+                valid += 8 + body.length;
+            }
+        }
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        final MoveJournal journal = new MoveJournal(file, channel);
+        try {
+            channel.truncate(valid);
+            channel.position(valid);
+            for (final SortEntry entry : intents.values()) {
+                journal.settle(entry);
+            }
+            journal.flush();
+        } catch (final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    private void settle(final SortEntry entry) throws IOException {
+        final Path source = entry.getSource();
+        final Path dest = entry.getDest();
+        final boolean sourceExists = Files.exists(source);
+        if (sourceExists) {
+            deletePart(source, dest.resolveSibling(dest.getFileName() + ".part"));
+        }
+        final boolean destExists = Files.exists(dest);
+        if (sourceExists && !destExists) {
+            this.pending.add(entry);
+        } else if (!sourceExists && destExists) {
+            commit(source);
+            this.recovered++;
+        } else if (sourceExists && sameContent(source, dest)) {
+            // copied across file stores, crashed before deleting the source
+            Files.delete(source);
+            commit(source);
+            this.recovered++;
+        } else if (sourceExists) {
+            this.conflicts.add(source + ": destination exists " + dest);
+        } else {
+            this.conflicts.add(source + ": missing, not at " + dest);
+        }
+    }
+
+    // A copy cut short is never larger than its source; anything else by
+    // that name is not ours and stays. Without the source there is nothing
+    // to copy, the move either finished or the part is not from this run.
+    private static void deletePart(final Path source, final Path part) throws IOException {
+        final long size;
+        try {
+            size = Files.size(part);
+        } catch (final NoSuchFileException e) {
+            return;
+        }
+        if (Files.isRegularFile(part) && size <= Files.size(source)) {
+            Files.delete(part);
+        }
+    }
+
+    @Override
+    public synchronized void moved(final SortEntry entry, final long size) throws IOException {
+        commit(entry.getSource().toAbsolutePath());
+        if (this.groupCount >= GROUP_SIZE || System.nanoTime() - this.lastForce >= GROUP_NANOS) {
+            flush();
+        }
+    }
+
+    private void commit(final Path source) throws IOException {
+        this.record.reset();
+        final DataOutputStream out = new DataOutputStream(this.record);
+        out.writeByte(DONE);
+        out.writeUTF(source.toString());
+        final ByteBuffer frame = FramedLog.frame(this.record.toByteArray(), this.record.size());
+        this.groupOut.write(frame.array(), 0, frame.limit());
+        this.groupCount++;
+    }
+
+    public synchronized void flush() throws IOException {
+        if (this.groupCount > 0) {
+            final ByteBuffer buf = ByteBuffer.wrap(this.group.toByteArray());
+            while (buf.hasRemaining()) {
+                this.channel.write(buf);
+            }
+            this.channel.force(false);
+            this.group.reset();
+            this.groupCount = 0;
+        }
+        this.lastForce = System.nanoTime();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.channel.isOpen()) {
+            try {
+                flush();
+            } finally {
+                this.channel.close();
+            }
+        }
+    }
+
+    // every move is done, the journal is no longer needed
+    public synchronized void complete() throws IOException {
+        close();
+        Files.deleteIfExists(this.file);
+    }
+
+    private ByteBuffer intent(final Path source, final Path dest) throws IOException {
+        this.record.reset();
+        final DataOutputStream out = new DataOutputStream(this.record);
+        out.writeByte(INTENT);
+        out.writeUTF(source.toString());
+        out.writeUTF(dest.toString());
+        return FramedLog.frame(this.record.toByteArray(), this.record.size());
+    }
+
+    private static byte[] header() {
+        return ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC).putInt(VERSION).array();
+    }
+
+    private static boolean sameContent(final Path a, final Path b) throws IOException {
+        if (Files.size(a) != Files.size(b)) {
+            return false;
+        }
+        try (InputStream inA = Files.newInputStream(a); InputStream inB = Files.newInputStream(b)) {
+            final byte[] bufA = new byte[COMPARE_LENGTH];
+            final byte[] bufB = new byte[COMPARE_LENGTH];
+            while (true) {
+                final int n = readFully(inA, bufA);
+                if (n != readFully(inB, bufB)) {
+                    return false;
+                }
+                if (n == 0) {
+                    return true;
+                }
+                for (int i = 0; i < n; i++) {
+                    if (bufA[i] != bufB[i]) {
+                        return false;
+                    }
+                }
+            }
+        }
+    }
+
+    private static int readFully(final InputStream in, final byte[] b) throws IOException {
+        int n = 0;
+        while (n < b.length) {
+            final int r = in.read(b, n, b.length - n);
+            if (r < 0) {
+                break;
+            }
+            n += r;
+        }
+        return n;
+    }
+}
@@ -1,6 +1,7 @@
 package com.element54.sorter.tags;
 
 import java.nio.file.Path;
+import java.util.Set;
 
 public interface AudioTag {
     public AudioType getAudioType();
@@ -25,6 +26,8 @@ public interface AudioTag {
 
     public String getCustom(String key);
 
+    public Set<String> getCustomKeys();
+
     default public boolean isAudiobook() {
         return getAudioType() == AudioType.AUDIOBOOK;
     }
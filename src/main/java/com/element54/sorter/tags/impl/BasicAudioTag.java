@@ -0,0 +1,116 @@
+package com.element54.sorter.tags.impl;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.element54.sorter.tags.AudioTag;
+import com.element54.sorter.tags.AudioType;
+
+public class BasicAudioTag implements AudioTag {
+
+    private final Path file;
+    private final String artist;
+    private final String albumArtist;
+    private final String album;
+    private final String title;
+    private final Integer year;
+    private final Integer track;
+    private final Integer disk;
+    private final boolean compilation;
+    private final Map<String, String> customs = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    public BasicAudioTag(final Path file, final String artist, final String albumArtist, final String album,
+            final String title, final Integer year, final Integer track, final Integer disk,
+            final boolean compilation, final Map<String, String> customs) {
+        super();
+        this.file = file;
+        this.artist = artist;
+        this.albumArtist = albumArtist;
+        this.album = album;
+        this.title = title;
+        this.year = year;
+        this.track = track;
+        this.disk = disk;
+        this.compilation = compilation;
+        for (final Map.Entry<String, String> e : customs.entrySet()) {
+            this.customs.putIfAbsent(e.getKey(), e.getValue());
+        }
+    }
+
+    // a copy holding only the values, without the parsed frames of the original
+    public static BasicAudioTag copyOf(final AudioTag tag) {
+        final Map<String, String> customs = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (final String key : tag.getCustomKeys()) {
+            customs.put(key, tag.getCustom(key));
+        }
+        return new BasicAudioTag(tag.getFile(), tag.getArtist(), tag.getAlbumArtist(), tag.getAlbum(),
+                tag.getTitle(), tag.getYear(), tag.getTrack(), tag.getDisk(), tag.isCompilation(), customs);
+    }
+
+    @Override
+    public AudioType getAudioType() {
+        if (getCustom("AUDIOBOOK") != null) {
+            return AudioType.AUDIOBOOK;
+        }
+        return AudioType.MUSIC;
+    }
+
+    @Override
+    public String getArtist() {
+        return this.artist;
+    }
+
+    @Override
+    public String getAlbumArtist() {
+        return this.albumArtist;
+    }
+
+    @Override
+    public String getAlbum() {
+        return this.album;
+    }
+
+    @Override
+    public Integer getDisk() {
+        return this.disk;
+    }
+
+    @Override
+    public Integer getTrack() {
+        return this.track;
+    }
+
+    @Override
+    public String getTitle() {
+        return this.title;
+    }
+
+    @Override
+    public Integer getYear() {
+        return this.year;
+    }
+
+    @Override
+    public boolean isCompilation() {
+        return this.compilation;
+    }
+
+    @Override
+    public Path getFile() {
+        return this.file;
+    }
+
+    @Override
+    public String getCustom(final String key) {
+        return this.customs.get(key);
+    }
+
+    @Override
+    public Set<String> getCustomKeys() {
+        return Collections.unmodifiableSet(this.customs.keySet());
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.element54.sorter.tags.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import com.element54.sorter.tags.AudioTag;
+import com.element54.sorter.tags.AudioTagService;
+
+public class CachingAudioTagService implements AudioTagService {
+
+    private final AudioTagService audioTagService;
+    private final TagCache cache;
+    private final Predicate<Path> uncached;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public CachingAudioTagService(final AudioTagService audioTagService, final TagCache cache) {
+        this(audioTagService, cache, file -> false);
+    }
+
+    // uncached: tags read for these files are not put into the cache, like
+    // tags whose repair is not written yet
+    public CachingAudioTagService(final AudioTagService audioTagService, final TagCache cache,
+            final Predicate<Path> uncached) {
+        super();
+        this.audioTagService = audioTagService;
+        this.cache = cache;
+        this.uncached = uncached;
+    }
+
+    @Override
+    public AudioTag readTag(Path file) throws IOException {
+        final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        final String key = file.toAbsolutePath().toString();
+        final long size = attrs.size();
+        final long modified = attrs.lastModifiedTime().toMillis();
+        final AudioTag cached = this.cache.get(file, key, size, modified);
+        if (cached != null) {
+            this.hits.increment();
+            return cached;
+        }
+        this.misses.increment();
+        final AudioTag tag = this.audioTagService.readTag(file);
+        if (!this.uncached.test(file)) {
+            this.cache.put(key, size, modified, tag);
+        }
+        return tag;
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    public TagCache getCache() {
+        return this.cache;
+    }
+}
@@ -0,0 +1,37 @@
+package com.element54.sorter.tags.impl;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import com.element54.sorter.tags.AudioTag;
+
+// Walks the FLAC metadata block headers and reads only the VORBIS_COMMENT
+// block, stream info, seek tables and pictures are skipped.
+public class FlacTagReader {
+    private static final int VORBIS_COMMENT = 4;
+
+    private FlacTagReader() {
+    }
+
+    // offset: position of the "fLaC" marker; returns null without comments
+    public static AudioTag read(final FileChannel channel, final long offset, final Path file) throws IOException {
+        final byte[] header = new byte[4];
+        long pos = offset + 4;
+        while (TagChannels.read(channel, pos, header, 0, 4) == 4) {
+            final boolean last = (header[0] & 0x80) != 0;
+            final int type = header[0] & 0x7f;
+            final int length = ((header[1] & 0xff) << 16) | ((header[2] & 0xff) << 8) | (header[3] & 0xff);
+            pos += 4;
+            if (type == VORBIS_COMMENT) {
+                final byte[] data = TagChannels.readFully(channel, pos, length);
+                return VorbisComments.createTag(VorbisComments.parse(data, 0), file);
+            }
+            if (last || type == 127) {
+                break;
+            }
+            pos += length;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,90 @@
+package com.element54.sorter.tags.impl;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.element54.sorter.tags.AudioTag;
+import com.element54.sorter.tags.AudioTagService;
+import com.element54.utils.file.PathUtils;
+
+// Picks the tag reader by the magic bytes at the start of the file: FLAC,
+// Ogg Vorbis/Opus and MP4 are read here, everything else (MP3) is left to
+// the ID3v2 service. FLAC files with a leading ID3v2 tag are recognized too.
+// Files named .mp3 go to the ID3v2 service without sniffing, which would
+// open them once more; only when it fails are they checked for another
+// format under the wrong name.
+public class FormatDetectingTagService implements AudioTagService {
+    private final AudioTagService id3TagService;
+
+    public FormatDetectingTagService(final AudioTagService id3TagService) {
+        super();
+        this.id3TagService = id3TagService;
+    }
+
+    @Override
+    public AudioTag readTag(Path file) throws IOException {
+        if (!"mp3".equalsIgnoreCase(PathUtils.getExtension(file))) {
+            final AudioTag tag = readDetected(file);
+            return tag != null ? tag : this.id3TagService.readTag(file);
+        }
+        try {
+            return this.id3TagService.readTag(file);
+        } catch (final IOException e) {
+            final AudioTag tag;
+            try {
+                tag = readDetected(file);
+            } catch (final IOException detectedFailed) {
+                throw e;
+            }
+            if (tag == null) {
+                throw e;
+            }
+            return tag;
+        }
+    }
+
+    // null for files left to the id3 service
+    private AudioTag readDetected(final Path file) throws IOException {
+        final String format;
+        final AudioTag tag;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final byte[] magic = new byte[ID3v2Frames.HEADER_LENGTH + 2];
+            final int n = TagChannels.read(channel, 0, magic, 0, magic.length);
+            long offset = 0;
+            if (n >= ID3v2Frames.HEADER_LENGTH && TagChannels.startsWith(magic, 0, "ID3")) {
+                final int footer = magic[3] == 4 && (magic[5] & 0x10) != 0 ? ID3v2Frames.HEADER_LENGTH : 0;
+                offset = ID3v2Frames.HEADER_LENGTH + ID3v2Frames.syncsafe(magic, 6) + footer;
+                if (TagChannels.read(channel, offset, magic, 0, 4) < 4 || !TagChannels.startsWith(magic, 0, "fLaC")) {
+                    offset = -1;
+                }
+            }
+            if (offset < 0) {
+                format = null;
+                tag = null;
+            } else if (TagChannels.startsWith(magic, 0, "fLaC")) {
+                format = "vorbis comment";
+                tag = FlacTagReader.read(channel, offset, file);
+            } else if (TagChannels.startsWith(magic, 0, "OggS")) {
+                format = "ogg comment";
+                tag = OggTagReader.read(channel, offset, file);
+            } else if (TagChannels.startsWith(magic, 4, "ftyp")) {
+                format = "mp4 ilst";
+                tag = Mp4TagReader.read(channel, file);
+            } else {
+                format = null;
+                tag = null;
+            }
+        } catch (final IOException e) {
+            throw new IOException("cannot read tag " + file.toString(), e);
+        }
+        if (format == null) {
+            return null;
+        }
+        if (tag == null) {
+            throw new IOException("missing " + format + " " + file.toString());
+        }
+        return tag;
+    }
+}
@@ -0,0 +1,352 @@
+package com.element54.sorter.tags.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class ID3v2Frames {
+    public static final int HEADER_LENGTH = 10;
+
+    private static final int CHUNK_LENGTH = 64 * 1024;
+    private static final Map<String, String> V22_IDS = new HashMap<>();
+    static {
+        V22_IDS.put("TP1", "TPE1");
+        V22_IDS.put("TP2", "TPE2");
+        V22_IDS.put("TAL", "TALB");
+        V22_IDS.put("TT2", "TIT2");
+        V22_IDS.put("TYE", "TYER");
+        V22_IDS.put("TRK", "TRCK");
+        V22_IDS.put("TPA", "TPOS");
+        V22_IDS.put("TCP", "TCMP");
+        V22_IDS.put("TXX", "TXXX");
+    }
+
+    private final int majorVersion;
+    private final int flags;
+    private final int tagLength;
+    private final Map<String, List<byte[]>> frames = new LinkedHashMap<>();
+    // offset of the padding behind the last frame in the tag body, -1 if the
+    // frames could not be walked up to it
+    private int framesEnd = -1;
+    // frames added by addText, encoded with their headers
+    private final ByteArrayOutputStream added = new ByteArrayOutputStream();
+
+    private ID3v2Frames(final int majorVersion, final int flags, final int tagLength) {
+        this.majorVersion = majorVersion;
+        this.flags = flags;
+        this.tagLength = tagLength;
+    }
+
+    public int getMajorVersion() {
+        return this.majorVersion;
+    }
+
+    public int getTagLength() {
+        return this.tagLength;
+    }
+
+    public int getFramesEnd() {
+        return this.framesEnd;
+    }
+
+    // bytes of padding behind the frames
+    public int getPadding() {
+        return this.framesEnd < 0 ? 0 : this.tagLength - HEADER_LENGTH - this.framesEnd;
+    }
+
+    // frames can be appended to 2.3 and 2.4 tags without unsynchronisation,
+    // extended header or footer, whose frames were all walked
+    public boolean isAppendable() {
+        return (this.majorVersion == 3 || this.majorVersion == 4) && (this.flags & 0xd0) == 0
+                && this.framesEnd >= 0;
+    }
+
+    // the frames added since reading, ready to be written behind the others
+    public byte[] getAddedFrames() {
+        return this.added.toByteArray();
+    }
+
+    // adds a text frame, seen by getText from now on; the existing frames of
+    // the id are not touched, so this is meant for frames that are missing
+    public void addText(final String id, final String text) {
+        if (!isAppendable()) {
+            throw new IllegalStateException("cannot add frames to id3v2." + this.majorVersion + " tag");
+        }
+        final byte[] data = encodeText(text);
+        final int size = data.length;
+        final byte[] header = new byte[10];
+        for (int i = 0; i < 4; i++) {
+            header[i] = (byte) id.charAt(i);
+        }
+        if (this.majorVersion == 3) {
+            header[4] = (byte) (size >>> 24);
+            header[5] = (byte) (size >>> 16);
+            header[6] = (byte) (size >>> 8);
+            header[7] = (byte) size;
+        } else {
+            header[4] = (byte) (size >>> 21 & 0x7f);
+            header[5] = (byte) (size >>> 14 & 0x7f);
+            header[6] = (byte) (size >>> 7 & 0x7f);
+            header[7] = (byte) (size & 0x7f);
+        }
+        this.added.write(header, 0, header.length);
+        this.added.write(data, 0, data.length);
+        final List<byte[]> list = new ArrayList<>(1);
+        list.add(data);
+        list.addAll(getFrames(id));
+        this.frames.put(id, list);
+    }
+
+    // latin-1 where it fits, else utf-8 in 2.4 and utf-16 with bom in 2.3
+    private byte[] encodeText(final String text) {
+        final int encoding;
+        if (StandardCharsets.ISO_8859_1.newEncoder().canEncode(text)) {
+            encoding = 0;
+        } else {
+            encoding = this.majorVersion == 4 ? 3 : 1;
+        }
+        final byte[] bytes = text.getBytes(charset(encoding));
+        final byte[] data = new byte[bytes.length + 1];
+        data[0] = (byte) encoding;
+        System.arraycopy(bytes, 0, data, 1, bytes.length);
+        return data;
+    }
+
+    public List<byte[]> getFrames(final String id) {
+        final List<byte[]> list = this.frames.get(id);
+        return list == null ? Collections.<byte[]>emptyList() : list;
+    }
+
+    public byte[] getFrame(final String id) {
+        final List<byte[]> list = this.frames.get(id);
+        return list == null ? null : list.get(0);
+    }
+
+    public String getText(final String id) {
+        final byte[] data = getFrame(id);
+        return data == null ? null : decodeText(data);
+    }
+
+    // wanted: frame ids to keep (2.3/2.4 spelling) or null for all, other
+    // frame bodies are skipped; returns null if there is no ID3v2 tag
+    public static ID3v2Frames read(final FileChannel channel, final Set<String> wanted) throws IOException {
+        final byte[] header = new byte[HEADER_LENGTH];
+        if (TagChannels.read(channel, 0, header, 0, HEADER_LENGTH) < HEADER_LENGTH) {
+            return null;
+        }
+        if (header[0] != 'I' || header[1] != 'D' || header[2] != '3') {
+            return null;
+        }
+        final int major = header[3];
+        final int flags = header[5] & 0xff;
+        final int size = syncsafe(header, 6);
+        if (major < 2 || major > 4 || size < 0) {
+            throw new IOException("unsupported id3v2 version 2." + major);
+        }
+        if (major == 2 && (flags & 0x40) != 0) {
+            throw new IOException("compressed id3v2.2 tag");
+        }
+        final int footer = major == 4 && (flags & 0x10) != 0 ? HEADER_LENGTH : 0;
+        final ID3v2Frames frames = new ID3v2Frames(major, flags, HEADER_LENGTH + size + footer);
+        final boolean tagUnsync = (flags & 0x80) != 0;
+
+        // The first chunk of the tag is read in one go, frames behind it (mostly
+        // embedded pictures) are read on demand or skipped entirely.
+        byte[] body;
+        if (tagUnsync && major < 4) {
+            body = new byte[size];
+            TagChannels.readFully(channel, HEADER_LENGTH, body, 0, size);
+            body = unsynchronise(body, 0, size);
+        } else {
+            body = new byte[Math.min(size, CHUNK_LENGTH)];
+            TagChannels.readFully(channel, HEADER_LENGTH, body, 0, body.length);
+        }
+        final int end = tagUnsync && major < 4 ? body.length : size;
+
+        int pos = 0;
+        if (major > 2 && (flags & 0x40) != 0) {
+            final byte[] ext = bytes(channel, body, 0, 4);
+            pos = major == 3 ? 4 + int32(ext, 0) : syncsafe(ext, 0);
+        }
+        final int frameHeaderLength = major == 2 ? 6 : 10;
+        if (pos >= 0 && pos + frameHeaderLength > end) {
+            frames.framesEnd = Math.min(pos, end);
+        }
+        while (pos >= 0 && pos + frameHeaderLength <= end) {
+            final byte[] fh = bytes(channel, body, pos, frameHeaderLength);
+            if (fh[0] == 0) {
+                frames.framesEnd = pos;
+                break;
+            }
+            String id;
+            int frameSize;
+            int formatFlags = 0;
+            if (major == 2) {
+                id = new String(fh, 0, 3, StandardCharsets.ISO_8859_1);
+                frameSize = ((fh[3] & 0xff) << 16) | ((fh[4] & 0xff) << 8) | (fh[5] & 0xff);
+                final String mapped = V22_IDS.get(id);
+                id = mapped == null ? id : mapped;
+            } else {
+                id = new String(fh, 0, 4, StandardCharsets.ISO_8859_1);
+                frameSize = major == 3 ? int32(fh, 4) : syncsafe(fh, 4);
+                formatFlags = fh[9] & 0xff;
+            }
+            final int dataStart = pos + frameHeaderLength;
+            if (frameSize <= 0 || frameSize > end - dataStart) {
+                break;
+            }
+            pos = dataStart + frameSize;
+            if (pos + frameHeaderLength > end) {
+                frames.framesEnd = pos;
+            }
+            if (wanted != null && !wanted.contains(id)) {
+                continue;
+            }
+            final byte[] data = frameData(major, formatFlags, tagUnsync,
+                    bytes(channel, body, dataStart, frameSize));
+            if (data != null) {
+                frames.frames.computeIfAbsent(id, k -> new ArrayList<>(1)).add(data);
+            }
+        }
+        return frames;
+    }
+
+    private static byte[] frameData(final int major, final int formatFlags, final boolean tagUnsync, byte[] data)
+            throws IOException {
+        int offset = 0;
+        if (major == 3) {
+            if ((formatFlags & 0xc0) != 0) {
+                // compressed or encrypted
+                return null;
+            }
+            if ((formatFlags & 0x20) != 0) {
+                offset++;
+            }
+        } else if (major == 4) {
+            if ((formatFlags & 0x0c) != 0) {
+                return null;
+            }
+            if ((formatFlags & 0x40) != 0) {
+                offset++;
+            }
+            if ((formatFlags & 0x01) != 0) {
+                offset += 4;
+            }
+            if (offset > data.length) {
+                throw new IOException("id3v2 frame shorter than its flags");
+            }
+            if (tagUnsync || (formatFlags & 0x02) != 0) {
+                return unsynchronise(data, offset, data.length);
+            }
+        }
+        if (offset == 0) {
+            return data;
+        }
+        if (offset > data.length) {
+            throw new IOException("id3v2 frame shorter than its flags");
+        }
+        return Arrays.copyOfRange(data, offset, data.length);
+    }
+
+    private static byte[] bytes(final FileChannel channel, final byte[] body, final int pos, final int length)
+            throws IOException {
+        if (pos + length <= body.length) {
+            return Arrays.copyOfRange(body, pos, pos + length);
+        }
+        final byte[] b = new byte[length];
+        TagChannels.readFully(channel, HEADER_LENGTH + (long) pos, b, 0, length);
+        return b;
+    }
+
+    static byte[] unsynchronise(final byte[] data, final int from, final int to) {
+        final byte[] out = new byte[to - from];
+        int j = 0;
+        for (int i = from; i < to; i++) {
+            out[j++] = data[i];
+            if (data[i] == (byte) 0xff && i + 1 < to && data[i + 1] == 0) {
+                i++;
+            }
+        }
+        return j == out.length ? out : Arrays.copyOf(out, j);
+    }
+
+    static int syncsafe(final byte[] b, final int off) {
+        return ((b[off] & 0x7f) << 21) | ((b[off + 1] & 0x7f) << 14) | ((b[off + 2] & 0x7f) << 7)
+                | (b[off + 3] & 0x7f);
+    }
+
+    static int int32(final byte[] b, final int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8)
+                | (b[off + 3] & 0xff);
+    }
+
+    public static String decodeText(final byte[] data) {
+        if (data.length == 0) {
+            return null;
+        }
+        final int encoding = data[0];
+        return decode(encoding, data, 1, terminator(encoding, data, 1));
+    }
+
+    public static String[] decodeUserText(final byte[] data) {
+        if (data.length == 0) {
+            return null;
+        }
+        final int encoding = data[0];
+        final int keyEnd = terminator(encoding, data, 1);
+        if (keyEnd >= data.length) {
+            return null;
+        }
+        final int valueStart = keyEnd + (encoding == 1 || encoding == 2 ? 2 : 1);
+        final String key = decode(encoding, data, 1, keyEnd);
+        final String value = decode(encoding, data, valueStart, terminator(encoding, data, valueStart));
+        return new String[] { key, value };
+    }
+
+    private static int terminator(final int encoding, final byte[] data, final int from) {
+        if (encoding == 1 || encoding == 2) {
+            for (int i = from; i + 1 < data.length; i += 2) {
+                if (data[i] == 0 && data[i + 1] == 0) {
+                    return i;
+                }
+            }
+        } else {
+            for (int i = from; i < data.length; i++) {
+                if (data[i] == 0) {
+                    return i;
+                }
+            }
+        }
+        return data.length;
+    }
+
+    private static String decode(final int encoding, final byte[] data, final int from, final int to) {
+        if (from >= to) {
+            return "";
+        }
+        return new String(data, from, to - from, charset(encoding));
+    }
+
+    private static Charset charset(final int encoding) {
+        switch (encoding) {
+        case 1:
+            return StandardCharsets.UTF_16;
+        case 2:
+            return StandardCharsets.UTF_16BE;
+        case 3:
+            return StandardCharsets.UTF_8;
+        default:
+            return StandardCharsets.ISO_8859_1;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.element54.sorter.tags.impl;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.element54.sorter.tags.AudioTag;
+import com.element54.sorter.tags.AudioTagService;
+
+public class ID3v2HeaderTagService implements AudioTagService {
+    private static final Set<String> FRAMES = new HashSet<>(
+            Arrays.asList("TPE1", "TPE2", "TALB", "TIT2", "TYER", "TDRC", "TRCK", "TPOS", "TCMP", "TXXX"));
+
+    @Override
+    public AudioTag readTag(Path file) throws IOException {
+        return createTag(readFrames(file), file);
+    }
+
+    protected ID3v2Frames readFrames(final Path file) throws IOException {
+        final ID3v2Frames frames;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            frames = ID3v2Frames.read(channel, FRAMES);
+        } catch (final IOException e) {
+            throw new IOException("cannot read tag " + file.toString(), e);
+        }
+        if (frames == null) {
+            throw new IOException("missing id3v2 tag " + file.toString());
+        }
+        return frames;
+    }
+
+    protected AudioTag createTag(final ID3v2Frames frames, final Path file) {
+        final Map<String, String> customs = new LinkedHashMap<>();
+        for (final byte[] data : frames.getFrames("TXXX")) {
+            final String[] kv = ID3v2Frames.decodeUserText(data);
+            if (kv != null && !kv[0].isEmpty()) {
+                customs.putIfAbsent(kv[0], kv[1]);
+            }
+        }
+        Integer year = TagValues.parseYear(frames.getText("TYER"));
+        if (year == null) {
+            year = TagValues.parseYear(frames.getText("TDRC"));
+        }
+        return new BasicAudioTag(file,
+                TagValues.filterVarious(frames.getText("TPE1")),
+                TagValues.filterVarious(frames.getText("TPE2")),
+                frames.getText("TALB"),
+                frames.getText("TIT2"),
+                year,
+                TagValues.parseNumber(frames.getText("TRCK")),
+                TagValues.parseNumber(frames.getText("TPOS")),
+                "1".equals(frames.getText("TCMP")),
+                customs);
+    }
+
+}
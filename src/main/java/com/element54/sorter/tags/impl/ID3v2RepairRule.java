@@ -0,0 +1,79 @@
+package com.element54.sorter.tags.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Fixes for tags the sorter rejects. A rule only adds frames that are
+// missing, taking the value from another frame of the same tag.
+public enum ID3v2RepairRule {
+    // albumArtist := artist, except on compilations and various artists
+    ALBUM_ARTIST("albumArtist") {
+        @Override
+        boolean apply(final ID3v2Frames frames) {
+            final String artist = TagValues.filterVarious(frames.getText("TPE1"));
+            if (frames.getFrame("TPE2") != null || artist == null || artist.isEmpty()
+                    || "1".equals(frames.getText("TCMP"))) {
+                return false;
+            }
+            frames.addText("TPE2", artist);
+            return true;
+        }
+    },
+    // the year frame of the tag version from the other one: TYER from the
+    // TDRC date in 2.3, TDRC from TYER in 2.4
+    YEAR("year") {
+        @Override
+        boolean apply(final ID3v2Frames frames) {
+            final boolean v3 = frames.getMajorVersion() == 3;
+            final String id = v3 ? "TYER" : "TDRC";
+            if (frames.getFrame(id) != null) {
+                return false;
+            }
+            final Integer year = TagValues.parseDate(frames.getText(v3 ? "TDRC" : "TYER"));
+            if (year == null || year < 1000 || year > 9999) {
+                return false;
+            }
+            frames.addText(id, year.toString());
+            return true;
+        }
+    };
+
+    private final String name;
+
+    private ID3v2RepairRule(final String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    // true if the rule added frames
+    abstract boolean apply(ID3v2Frames frames);
+
+    // a comma separated list of rule names, "all" for every rule
+    public static List<ID3v2RepairRule> parse(final String names) {
+        final List<ID3v2RepairRule> rules = new ArrayList<>();
+        for (final String name : names.split(",")) {
+            final String trimmed = name.trim();
+            if ("all".equalsIgnoreCase(trimmed)) {
+                rules.clear();
+                for (final ID3v2RepairRule rule : values()) {
+                    rules.add(rule);
+                }
+                return rules;
+            }
+            rules.add(forName(trimmed));
+        }
+        return rules;
+    }
+
+    private static ID3v2RepairRule forName(final String name) {
+        for (final ID3v2RepairRule rule : values()) {
+            if (rule.name.equalsIgnoreCase(name)) {
+                return rule;
+            }
+        }
+        throw new IllegalArgumentException("unknown repair rule " + name);
+    }
+}
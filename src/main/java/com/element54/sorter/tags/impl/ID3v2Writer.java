@@ -0,0 +1,178 @@
+package com.element54.sorter.tags.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.List;
+import java.util.Set;
+
+// Writes the frames added to a tag behind its other frames. When they fit
+// into the padding they overwrite it in place and the tag header stays as
+// it is, a few hundred bytes of io. Otherwise the file is streamed once into
+// a temporary file next to it with the grown tag and fresh padding, which
+// then replaces the original with its permissions, owner, group and user
+// attributes. A file whose metadata cannot be carried over that way, or
+// that has other hard links, is only repaired in place.
+final class ID3v2Writer {
+    // padding left by a rewrite, so later repairs fit in place
+    static final int PADDING = 2048;
+
+    private ID3v2Writer() {
+    }
+
+    // returns true if the frames were written in place
+    static boolean appendFrames(final Path file, final ID3v2Frames frames) throws IOException {
+        final byte[] added = frames.getAddedFrames();
+        if (added.length == 0) {
+            return true;
+        }
+        if (!frames.isAppendable()) {
+            throw new IOException("cannot write id3v2." + frames.getMajorVersion() + " tag " + file);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final byte[] header = TagChannels.readFully(channel, 0, ID3v2Frames.HEADER_LENGTH);
+            if (!TagChannels.startsWith(header, 0, "ID3")
+                    || ID3v2Frames.HEADER_LENGTH + ID3v2Frames.syncsafe(header, 6) != frames.getTagLength()) {
+                throw new IOException("tag changed since reading " + file);
+            }
+            if (added.length <= frames.getPadding()) {
+                final long position = ID3v2Frames.HEADER_LENGTH + (long) frames.getFramesEnd();
+                // guards against a misread frame list, the padding must be zeros
+                for (final byte b : TagChannels.readFully(channel, position, added.length)) {
+                    if (b != 0) {
+                        throw new IOException("unexpected data in padding " + file);
+                    }
+                }
+                write(channel, position, ByteBuffer.wrap(added));
+                channel.force(false);
+                return true;
+            }
+            rewrite(file, channel, header, frames, added);
+            return false;
+        }
+    }
+
+    private static void rewrite(final Path file, final FileChannel channel, final byte[] header,
+            final ID3v2Frames frames, final byte[] added) throws IOException {
+        if (getLinks(file) > 1) {
+            throw new IOException("tag padding too small and file has hard links " + file);
+        }
+        final int framesEnd = frames.getFramesEnd();
+        final int size = framesEnd + added.length + PADDING;
+        final Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), ".mediasorter-", ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                final byte[] newHeader = header.clone();
+                newHeader[6] = (byte) (size >>> 21 & 0x7f);
+                newHeader[7] = (byte) (size >>> 14 & 0x7f);
+                newHeader[8] = (byte) (size >>> 7 & 0x7f);
+                newHeader[9] = (byte) (size & 0x7f);
+                long position = write(out, 0, ByteBuffer.wrap(newHeader));
+                position = transfer(channel, ID3v2Frames.HEADER_LENGTH, framesEnd, out, position);
+                position = write(out, position, ByteBuffer.wrap(added));
+                position = write(out, position, ByteBuffer.allocate(PADDING));
+                transfer(channel, frames.getTagLength(), channel.size() - frames.getTagLength(), out, position);
+                out.force(false);
+            }
+            copyPermissions(file, temp);
+            copyOwner(file, temp);
+            copyUserAttributes(file, temp);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // temporary files are created private
+    private static void copyPermissions(final Path from, final Path to) throws IOException {
+        final Set<PosixFilePermission> permissions;
+        try {
+            permissions = Files.getPosixFilePermissions(from);
+        } catch (final UnsupportedOperationException e) {
+            return;
+        }
+        Files.setPosixFilePermissions(to, permissions);
+    }
+
+    // 1 where the file system does not count links
+    private static int getLinks(final Path file) throws IOException {
+        try {
+            return (Integer) Files.getAttribute(file, "unix:nlink");
+        } catch (final UnsupportedOperationException | IllegalArgumentException e) {
+            return 1;
+        }
+    }
+
+    // temporary files belong to the user running the sorter; changing that
+    // needs privileges, without them the rewrite fails
+    private static void copyOwner(final Path from, final Path to) throws IOException {
+        final PosixFileAttributeView fromView = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+        final PosixFileAttributeView toView = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+        if (fromView == null || toView == null) {
+            if (!Files.getOwner(from).equals(Files.getOwner(to))) {
+                throw new IOException("cannot keep the owner of " + from);
+            }
+            return;
+        }
+        final PosixFileAttributes fromAttrs = fromView.readAttributes();
+        final PosixFileAttributes toAttrs = toView.readAttributes();
+        if (!fromAttrs.owner().equals(toAttrs.owner())) {
+            toView.setOwner(fromAttrs.owner());
+        }
+        if (!fromAttrs.group().equals(toAttrs.group())) {
+            toView.setGroup(fromAttrs.group());
+        }
+    }
+
+    private static void copyUserAttributes(final Path from, final Path to) throws IOException {
+        final UserDefinedFileAttributeView fromView = Files.getFileAttributeView(from,
+                UserDefinedFileAttributeView.class);
+        if (fromView == null) {
+            return;
+        }
+        final List<String> names = fromView.list();
+        if (names.isEmpty()) {
+            return;
+        }
+        final UserDefinedFileAttributeView toView = Files.getFileAttributeView(to,
+                UserDefinedFileAttributeView.class);
+        if (toView == null) {
+            throw new IOException("cannot keep the user attributes of " + from);
+        }
+        for (final String name : names) {
+            final ByteBuffer value = ByteBuffer.allocate(fromView.size(name));
+            fromView.read(name, value);
+            value.flip();
+            toView.write(name, value);
+        }
+    }
+
+    private static long write(final FileChannel channel, long position, final ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+        return position;
+    }
+
+    private static long transfer(final FileChannel in, long from, long length, final FileChannel out,
+            long position) throws IOException {
+        while (length > 0) {
+            final long n = in.transferTo(from, length, out.position(position));
+            if (n <= 0) {
+                throw new IOException("file shrank while rewriting");
+            }
+            from += n;
+            length -= n;
+            position += n;
+        }
+        return position;
+    }
+}
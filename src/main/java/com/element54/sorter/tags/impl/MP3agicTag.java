@@ -1,28 +1,20 @@
 package com.element54.sorter.tags.impl;
 
 import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.List;
+import java.util.Collections;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import org.apache.commons.lang3.ArrayUtils;
+import java.util.Set;
+import java.util.TreeMap;
 
 import com.element54.sorter.tags.AudioTag;
 import com.element54.sorter.tags.AudioType;
 import com.mpatric.mp3agic.ID3v2;
-import com.mpatric.mp3agic.ID3v23Tag;
 import com.mpatric.mp3agic.ID3v2Frame;
 import com.mpatric.mp3agic.ID3v2FrameSet;
 import com.mpatric.mp3agic.ID3v2TextFrameData;
 import com.mpatric.mp3agic.InvalidDataException;
 
 public class MP3agicTag implements AudioTag {
-    private static final Pattern TRACK_PATTERN = Pattern.compile("^(\\d+)(/\\d+)?$");
-    private static final Pattern DISK_PATTERN = Pattern.compile("^(\\d+)(/\\d+)?$");
-    private static final Pattern YEAR_PATTERN = Pattern.compile("^(\\d+)(/\\d+)?$");
-
     private final ID3v2 tag;
 
     private String artist = null;
@@ -33,47 +25,27 @@ public class MP3agicTag implements AudioTag {
     private Integer track = null;
     private Integer disk = null;
     private boolean compilation = false;
-    private AudioType type = null;
+    private volatile Map<String, String> customs = null;
     private final Path file;
 
     public MP3agicTag(final ID3v2 tag, final Path file) {
         this.tag = tag;
         this.file = file;
 
-        this.type = getAudioType(tag);
         this.compilation = tag.isCompilation();
-        this.artist = tag.getArtist();
-        if ("Various Artists".equalsIgnoreCase(this.artist)) {
-            this.artist = null;
-        }
-        this.albumArtist = tag.getAlbumArtist();
-        if ("Various Artists".equalsIgnoreCase(this.albumArtist)) {
-            this.albumArtist = null;
-        }
+        this.artist = TagValues.filterVarious(tag.getArtist());
+        this.albumArtist = TagValues.filterVarious(tag.getAlbumArtist());
         this.album = tag.getAlbum();
         this.title = tag.getTitle();
         this.year = parseYear(tag);
 
-        if (tag.getTrack() != null) {
-            final String s = tag.getTrack();
-            final Matcher m = TRACK_PATTERN.matcher(s);
-            if (m.matches()) {
-                this.track = Integer.valueOf(m.group(1));
-            }
-        }
-        if (tag.getPartOfSet() != null) {
-            final String s = tag.getPartOfSet();
-            final Matcher m = DISK_PATTERN.matcher(s);
-            if (m.matches()) {
-                this.disk = Integer.valueOf(m.group(1));
-            }
-        }
-
+        this.track = TagValues.parseNumber(tag.getTrack());
+        this.disk = TagValues.parseNumber(tag.getPartOfSet());
     }
 
     private Integer parseYear(ID3v2 tag) {
         if (tag.getYear() != null) {
-            final Integer year = filterYear(tag.getYear());
+            final Integer year = TagValues.parseYear(tag.getYear());
             if (year != null) {
                 return year;
             }
@@ -81,91 +53,40 @@ public class MP3agicTag implements AudioTag {
         if (this.year == null && tag.getFrameSets().containsKey("TDRC")) {
             final ID3v2TextFrameData frameData = extractTextFrameData(tag, "TDRC");
             if (frameData != null && frameData.getText() != null) {
-                return filterYear(frameData.getText().toString());
+                return TagValues.parseYear(frameData.getText().toString());
             }
         }
         return null;
     }
 
-    private Integer filterYear(String str) {
-        try {
-            return Integer.valueOf(str);
-        } catch (final NumberFormatException e) {
-            final Matcher m = YEAR_PATTERN.matcher(str);
-            if (m.matches()) {
-                return Integer.valueOf(m.group(1));
-            } else {
-                return null;
-            }
-        }
-    }
-
-    private AudioType getAudioType(final ID3v2 tag) {
-        final String audiobook = getCustom("AUDIOBOOK");
-        if (audiobook != null) {
-            return AudioType.AUDIOBOOK;
-        }
-        return AudioType.MUSIC;
-    }
-
     @Override
     public String getCustom(final String name) {
-        if (this.tag instanceof ID3v23Tag) {
-            return getCustom23(name);
-        } else {
-            return getCustom24(name);
-        }
+        return getCustoms().get(name);
     }
 
-    public String getCustom23(final String name) {
-        final Map<String, ID3v2FrameSet> map = this.tag.getFrameSets();
-        final ID3v2FrameSet set = map.get("TXXX");
-        if (set == null) {
-            return null;
-        }
-        final List<ID3v2Frame> frames = set.getFrames();
-        for (final ID3v2Frame f : frames) {
-            try {
-                final byte[] data = f.getData();
-                final ID3v2TextFrameData frameData = new ID3v2TextFrameData(false, f.getData());
-                final String str = frameData.getText().toString();
-                final int i = str.indexOf(0);
-                if (i <= 0) {
-                    continue;
-                }
-                final String key = str.substring(0, i);
-                if (name.equalsIgnoreCase(key)) {
-                    return str.substring(i + 1, str.length());
+    @Override
+    public Set<String> getCustomKeys() {
+        return Collections.unmodifiableSet(getCustoms().keySet());
+    }
+
+    // TXXX frames are decoded once, on first access, into a case-insensitive
+    // index; the first frame wins for duplicate descriptions
+    private Map<String, String> getCustoms() {
+        Map<String, String> customs = this.customs;
+        if (customs == null) {
+            customs = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            final ID3v2FrameSet set = this.tag.getFrameSets().get("TXXX");
+            if (set != null) {
+                for (final ID3v2Frame f : set.getFrames()) {
+                    final String[] kv = ID3v2Frames.decodeUserText(f.getData());
+                    if (kv != null && !kv[0].isEmpty()) {
+                        customs.putIfAbsent(kv[0], kv[1]);
+                    }
                 }
-            } catch (final InvalidDataException e) {
-                continue;
             }
+            this.customs = customs;
         }
-        return null;
-    }
-
-    public String getCustom24(final String name) {
-        final Map<String, ID3v2FrameSet> map = this.tag.getFrameSets();
-        final ID3v2FrameSet set = map.get("TXXX");
-        if (set == null) {
-            return null;
-        }
-        final List<ID3v2Frame> frames = set.getFrames();
-        for (final ID3v2Frame f : frames) {
-            final byte[] data = f.getData();
-
-            final int i1 = ArrayUtils.indexOf(data, (byte) 0, 1);
-            final int i2 = ArrayUtils.indexOf(data, (byte) 0, i1 + 1);
-            if (i1 >= i2 || i1 < 0 || i2 < 0) {
-                continue;
-            }
-            final String key = new String(Arrays.copyOfRange(data, 1, i1));
-            final String val = new String(Arrays.copyOfRange(data, i1 + 1, i2));
-            if (key.equalsIgnoreCase(name)) {
-                return val;
-            }
-        }
-        return null;
+        return customs;
     }
 
     protected ID3v2TextFrameData extractTextFrameData(ID3v2 tag, String id) {
@@ -221,7 +142,10 @@ public class MP3agicTag implements AudioTag {
 
     @Override
     public AudioType getAudioType() {
-        return this.type;
+        if (getCustom("AUDIOBOOK") != null) {
+            return AudioType.AUDIOBOOK;
+        }
+        return AudioType.MUSIC;
     }
 
     @Override
@@ -0,0 +1,176 @@
+package com.element54.sorter.tags.impl;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.element54.sorter.tags.AudioTag;
+
+// Follows moov/udta/meta/ilst by atom headers only, so media data in front of
+// the movie atom is skipped without reading it. Of the ilst items only the
+// mapped ones are read; cover art is never loaded.
+public class Mp4TagReader {
+    private static final Set<String> ITEMS = new HashSet<>(Arrays.asList("\u00a9ART", "aART", "\u00a9alb",
+            "\u00a9nam", "\u00a9day", "trkn", "disk", "cpil", "stik", "----"));
+    private static final int MAX_ITEM_LENGTH = 1024 * 1024;
+    private static final int STIK_AUDIOBOOK = 2;
+
+    private Mp4TagReader() {
+    }
+
+    // returns null if there is no ilst atom
+    public static AudioTag read(final FileChannel channel, final Path file) throws IOException {
+        long[] atom = find(channel, 0, channel.size(), "moov");
+        atom = atom == null ? null : find(channel, atom[0], atom[1], "udta");
+        atom = atom == null ? null : find(channel, atom[0], atom[1], "meta");
+        if (atom == null) {
+            return null;
+        }
+        // meta is a full atom in iTunes files, but not in every QuickTime writer
+        final byte[] peek = new byte[8];
+        if (TagChannels.read(channel, atom[0], peek, 0, 8) == 8 && !TagChannels.startsWith(peek, 4, "hdlr")) {
+            atom[0] += 4;
+        }
+        atom = find(channel, atom[0], atom[1], "ilst");
+        if (atom == null) {
+            return null;
+        }
+        final Map<String, byte[]> items = new LinkedHashMap<>();
+        final Map<String, String> customs = new LinkedHashMap<>();
+        final byte[] header = new byte[16];
+        long pos = atom[0];
+        while (pos + 8 <= atom[1]) {
+            final long[] item = header(channel, pos, atom[1], header);
+            final String type = new String(header, 4, 4, StandardCharsets.ISO_8859_1);
+            final long length = item[1] - item[0];
+            if (ITEMS.contains(type) && length <= MAX_ITEM_LENGTH) {
+                final byte[] body = TagChannels.readFully(channel, item[0], (int) length);
+                if ("----".equals(type)) {
+                    freeform(body, customs);
+                } else {
+                    final byte[] data = data(body);
+                    if (data != null) {
+                        items.putIfAbsent(type, data);
+                    }
+                }
+            }
+            pos = item[1];
+        }
+        if (number(items.get("stik")) == STIK_AUDIOBOOK) {
+            customs.putIfAbsent("AUDIOBOOK", "1");
+        }
+        return new BasicAudioTag(file,
+                TagValues.filterVarious(text(items.get("\u00a9ART"))),
+                TagValues.filterVarious(text(items.get("aART"))),
+                text(items.get("\u00a9alb")),
+                text(items.get("\u00a9nam")),
+                TagValues.parseDate(text(items.get("\u00a9day"))),
+                pair(items.get("trkn")),
+                pair(items.get("disk")),
+                number(items.get("cpil")) > 0,
+                customs);
+    }
+
+    private static long[] find(final FileChannel channel, final long start, final long end, final String type)
+            throws IOException {
+        final byte[] header = new byte[16];
+        long pos = start;
+        while (pos + 8 <= end) {
+            final long[] atom = header(channel, pos, end, header);
+            if (TagChannels.startsWith(header, 4, type)) {
+                return atom;
+            }
+            pos = atom[1];
+        }
+        return null;
+    }
+
+    // returns body start and end of the atom at pos, header holds its raw header
+    private static long[] header(final FileChannel channel, final long pos, final long end, final byte[] header)
+            throws IOException {
+        if (TagChannels.read(channel, pos, header, 0, 8) < 8) {
+            throw new IOException("truncated mp4 atom");
+        }
+        long size = ID3v2Frames.int32(header, 0) & 0xffffffffL;
+        long body = pos + 8;
+        if (size == 1) {
+            if (TagChannels.read(channel, pos + 8, header, 8, 8) < 8) {
+                throw new IOException("truncated mp4 atom");
+            }
+            size = ((long) ID3v2Frames.int32(header, 8) << 32) | (ID3v2Frames.int32(header, 12) & 0xffffffffL);
+            body += 8;
+        } else if (size == 0) {
+            size = end - pos;
+        }
+        if (size < body - pos || pos + size > end) {
+            throw new IOException("invalid mp4 atom size");
+        }
+        return new long[] { body, pos + size };
+    }
+
+    // payload of the first "data" atom in an item body
+    private static byte[] data(final byte[] body) {
+        int pos = 0;
+        while (pos + 16 <= body.length) {
+            final int size = ID3v2Frames.int32(body, pos);
+            if (size < 8 || size > body.length - pos) {
+                return null;
+            }
+            if (TagChannels.startsWith(body, pos + 4, "data") && size >= 16) {
+                return Arrays.copyOfRange(body, pos + 16, pos + size);
+            }
+            pos += size;
+        }
+        return null;
+    }
+
+    // iTunes freeform items: "mean" and "name" full atoms followed by "data"
+    private static void freeform(final byte[] body, final Map<String, String> customs) {
+        String name = null;
+        int pos = 0;
+        while (pos + 8 <= body.length) {
+            final int size = ID3v2Frames.int32(body, pos);
+            if (size < 8 || size > body.length - pos) {
+                return;
+            }
+            if (TagChannels.startsWith(body, pos + 4, "name") && size >= 12) {
+                name = new String(body, pos + 12, size - 12, StandardCharsets.UTF_8);
+            } else if (TagChannels.startsWith(body, pos + 4, "data") && size >= 16 && name != null
+                    && !name.isEmpty()) {
+                customs.putIfAbsent(name, new String(body, pos + 16, size - 16, StandardCharsets.UTF_8));
+                return;
+            }
+            pos += size;
+        }
+    }
+
+    private static String text(final byte[] data) {
+        return data == null ? null : new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static int number(final byte[] data) {
+        if (data == null) {
+            return 0;
+        }
+        int n = 0;
+        for (final byte b : data) {
+            n = (n << 8) | (b & 0xff);
+        }
+        return n;
+    }
+
+    // trkn and disk: reserved short, number, total
+    private static Integer pair(final byte[] data) {
+        if (data == null || data.length < 4) {
+            return null;
+        }
+        final int n = ((data[2] & 0xff) << 8) | (data[3] & 0xff);
+        return n == 0 ? null : n;
+    }
+}
@@ -0,0 +1,86 @@
+package com.element54.sorter.tags.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import com.element54.sorter.tags.AudioTag;
+
+// Reads the first two packets of the first logical Ogg stream: the codec
+// identification and the comment header. Audio pages are never touched.
+public class OggTagReader {
+    private static final int PAGE_HEADER_LENGTH = 27;
+    private static final int MAX_PACKET_LENGTH = 16 * 1024 * 1024;
+
+    private OggTagReader() {
+    }
+
+    // offset: position of the first "OggS" page; returns null for unknown codecs
+    public static AudioTag read(final FileChannel channel, final long offset, final Path file) throws IOException {
+        final byte[][] packets = packets(channel, offset, 2);
+        final int prefix;
+        if (TagChannels.startsWith(packets[0], 0, "\u0001vorbis")) {
+            prefix = 7;
+        } else if (TagChannels.startsWith(packets[0], 0, "OpusHead")) {
+            prefix = 8;
+        } else {
+            return null;
+        }
+        if (!TagChannels.startsWith(packets[1], 0, prefix == 7 ? "\u0003vorbis" : "OpusTags")) {
+            return null;
+        }
+        return VorbisComments.createTag(VorbisComments.parse(packets[1], prefix), file);
+    }
+
+    // Packets of other multiplexed streams are skipped, each page body of the
+    // first stream is read in one go.
+    private static byte[][] packets(final FileChannel channel, final long offset, final int n) throws IOException {
+        final byte[][] packets = new byte[n][];
+        final ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        final byte[] header = new byte[PAGE_HEADER_LENGTH + 255];
+        long pos = offset;
+        int serial = 0;
+        boolean first = true;
+        int index = 0;
+        while (index < n) {
+            if (TagChannels.read(channel, pos, header, 0, PAGE_HEADER_LENGTH) < PAGE_HEADER_LENGTH
+                    || !TagChannels.startsWith(header, 0, "OggS")) {
+                throw new IOException("truncated ogg stream");
+            }
+            final int count = header[26] & 0xff;
+            if (TagChannels.read(channel, pos + PAGE_HEADER_LENGTH, header, PAGE_HEADER_LENGTH,
+                    count) < count) {
+                throw new IOException("truncated ogg stream");
+            }
+            int bodyLength = 0;
+            for (int i = 0; i < count; i++) {
+                bodyLength += header[PAGE_HEADER_LENGTH + i] & 0xff;
+            }
+            final long body = pos + PAGE_HEADER_LENGTH + count;
+            pos = body + bodyLength;
+            final int pageSerial = TagChannels.int32LE(header, 14);
+            if (first) {
+                serial = pageSerial;
+                first = false;
+            } else if (pageSerial != serial) {
+                continue;
+            }
+            final byte[] data = TagChannels.readFully(channel, body, bodyLength);
+            int start = 0;
+            for (int i = 0; i < count && index < n; i++) {
+                final int length = header[PAGE_HEADER_LENGTH + i] & 0xff;
+                if (packet.size() + length > MAX_PACKET_LENGTH) {
+                    throw new IOException("ogg header packet too large");
+                }
+                packet.write(data, start, length);
+                start += length;
+                if (length < 255) {
+                    packets[index++] = packet.toByteArray();
+                    packet.reset();
+                }
+            }
+        }
+        return packets;
+    }
+}
@@ -0,0 +1,84 @@
+package com.element54.sorter.tags.impl;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.element54.sorter.tags.AudioTag;
+import com.element54.utils.metrics.Counter;
+
+// Reads ID3v2 tags like the header service and applies the repair rules to
+// the frames read, so the sorter sees the repaired tag without parsing it
+// again. A deferred service only collects the repairs while reading, and
+// writePending writes them once the moves are confirmed; otherwise added
+// frames are written back to the file before the tag is returned.
+public class RepairingTagService extends ID3v2HeaderTagService {
+    private final List<ID3v2RepairRule> rules;
+    private final Counter repaired;
+    private final Counter rewritten;
+    private final boolean deferred;
+    // in path order, the order the files are moved in
+    private final Map<Path, ID3v2Frames> pending = new ConcurrentSkipListMap<>();
+
+    // repaired counts all tags written, rewritten those that did not fit
+    // into their padding
+    public RepairingTagService(final List<ID3v2RepairRule> rules, final Counter repaired, final Counter rewritten,
+            final boolean deferred) {
+        super();
+        this.rules = new ArrayList<>(rules);
+        this.repaired = repaired;
+        this.rewritten = rewritten;
+        this.deferred = deferred;
+    }
+
+    @Override
+    public AudioTag readTag(Path file) throws IOException {
+        final ID3v2Frames frames = readFrames(file);
+        if (frames.isAppendable()) {
+            boolean changed = false;
+            for (final ID3v2RepairRule rule : this.rules) {
+                changed |= rule.apply(frames);
+            }
+            if (changed && this.deferred) {
+                this.pending.put(file.toAbsolutePath(), frames);
+            } else if (changed) {
+                write(file, frames);
+            }
+        }
+        return createTag(frames, file);
+    }
+
+    // true if the tag read for the file has a repair not yet written
+    public boolean isPending(final Path file) {
+        return this.pending.containsKey(file.toAbsolutePath());
+    }
+
+    public int getPending() {
+        return this.pending.size();
+    }
+
+    // Writes the collected repairs and stops at the first one that fails.
+    // The file must still hold the tag that was read, see ID3v2Writer.
+    public void writePending() throws IOException {
+        for (final Map.Entry<Path, ID3v2Frames> e : this.pending.entrySet()) {
+            write(e.getKey(), e.getValue());
+            this.pending.remove(e.getKey());
+        }
+    }
+
+    private void write(final Path file, final ID3v2Frames frames) throws IOException {
+        final boolean inPlace;
+        try {
+            inPlace = ID3v2Writer.appendFrames(file, frames);
+        } catch (final IOException e) {
+            throw new IOException("cannot repair tag " + file.toString() + ": " + e.getMessage(), e);
+        }
+        this.repaired.increment();
+        if (!inPlace) {
+            this.rewritten.increment();
+        }
+    }
+}
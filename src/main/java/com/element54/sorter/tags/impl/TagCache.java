@@ -0,0 +1,170 @@
+package com.element54.sorter.tags.impl;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.element54.sorter.tags.AudioTag;
+import com.element54.utils.cache.FileCache;
+
+public class TagCache {
+    private static final int MAGIC = 0x4d535443;
+    // 2: strings as length prefixed utf-8, not limited to 64 KB
+    private static final int VERSION = 2;
+
+    private static final int HAS_ARTIST = 1;
+    private static final int HAS_ALBUM_ARTIST = 1 << 1;
+    private static final int HAS_ALBUM = 1 << 2;
+    private static final int HAS_TITLE = 1 << 3;
+    private static final int HAS_YEAR = 1 << 4;
+    private static final int HAS_TRACK = 1 << 5;
+    private static final int HAS_DISK = 1 << 6;
+    private static final int COMPILATION = 1 << 7;
+
+    static class Entry {
+        final String artist;
+        final String albumArtist;
+        final String album;
+        final String title;
+        final Integer year;
+        final Integer track;
+        final Integer disk;
+        final boolean compilation;
+        final Map<String, String> customs;
+
+        Entry(final String artist, final String albumArtist, final String album, final String title,
+                final Integer year, final Integer track, final Integer disk, final boolean compilation,
+                final Map<String, String> customs) {
+            this.artist = artist;
+            this.albumArtist = albumArtist;
+            this.album = album;
+            this.title = title;
+            this.year = year;
+            this.track = track;
+            this.disk = disk;
+            this.compilation = compilation;
+            this.customs = customs;
+        }
+
+        Entry(final AudioTag tag) {
+            this(tag.getArtist(), tag.getAlbumArtist(), tag.getAlbum(), tag.getTitle(), tag.getYear(),
+                    tag.getTrack(), tag.getDisk(), tag.isCompilation(), customs(tag));
+        }
+
+        AudioTag toTag(final Path file) {
+            return new BasicAudioTag(file, this.artist, this.albumArtist, this.album, this.title, this.year,
+                    this.track, this.disk, this.compilation, this.customs);
+        }
+
+        private static Map<String, String> customs(final AudioTag tag) {
+            final Map<String, String> customs = new LinkedHashMap<>();
+            for (final String key : tag.getCustomKeys()) {
+                customs.put(key, tag.getCustom(key));
+            }
+            return customs;
+        }
+    }
+
+    private static final FileCache.Codec<Entry> CODEC = new FileCache.Codec<Entry>() {
+        @Override
+        public void write(final DataOutputStream out, final Entry value) throws IOException {
+            writeEntry(out, value);
+        }
+
+        @Override
+        public Entry read(final DataInputStream in) throws IOException {
+            return readEntry(in);
+        }
+    };
+
+    private final FileCache<Entry> entries;
+
+    public TagCache(final Path file, final int maxEntries) {
+        super();
+        this.entries = new FileCache<>(file, MAGIC, VERSION, maxEntries, CODEC);
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    public AudioTag get(final Path file, final String key, final long size, final long modified) {
+        final Entry entry = this.entries.get(key, size, modified);
+        return entry == null ? null : entry.toTag(file);
+    }
+
+    public void put(final String key, final long size, final long modified, final AudioTag tag) {
+        this.entries.put(key, size, modified, new Entry(tag));
+    }
+
+    public void load() throws IOException {
+        this.entries.load();
+    }
+
+    public void save() throws IOException {
+        this.entries.save();
+    }
+
+    private static Entry readEntry(final DataInputStream in) throws IOException {
+        final int flags = in.readUnsignedByte();
+        final String artist = (flags & HAS_ARTIST) != 0 ? FileCache.readString(in) : null;
+        final String albumArtist = (flags & HAS_ALBUM_ARTIST) != 0 ? FileCache.readString(in) : null;
+        final String album = (flags & HAS_ALBUM) != 0 ? FileCache.readString(in) : null;
+        final String title = (flags & HAS_TITLE) != 0 ? FileCache.readString(in) : null;
+        final Integer year = (flags & HAS_YEAR) != 0 ? in.readInt() : null;
+        final Integer track = (flags & HAS_TRACK) != 0 ? in.readInt() : null;
+        final Integer disk = (flags & HAS_DISK) != 0 ? in.readInt() : null;
+        final int customCount = in.readUnsignedShort();
+        final Map<String, String> customs = new LinkedHashMap<>();
+        for (int i = 0; i < customCount; i++) {
+            customs.put(FileCache.readString(in), FileCache.readString(in));
+        }
+        return new Entry(artist, albumArtist, album, title, year, track, disk,
+                (flags & COMPILATION) != 0, customs);
+    }
+
+    private static void writeEntry(final DataOutputStream out, final Entry e) throws IOException {
+        int flags = 0;
+        flags |= e.artist != null ? HAS_ARTIST : 0;
+        flags |= e.albumArtist != null ? HAS_ALBUM_ARTIST : 0;
+        flags |= e.album != null ? HAS_ALBUM : 0;
+        flags |= e.title != null ? HAS_TITLE : 0;
+        flags |= e.year != null ? HAS_YEAR : 0;
+        flags |= e.track != null ? HAS_TRACK : 0;
+        flags |= e.disk != null ? HAS_DISK : 0;
+        flags |= e.compilation ? COMPILATION : 0;
+        out.writeByte(flags);
+        writeOptional(out, e.artist);
+        writeOptional(out, e.albumArtist);
+        writeOptional(out, e.album);
+        writeOptional(out, e.title);
+        writeInt(out, e.year);
+        writeInt(out, e.track);
+        writeInt(out, e.disk);
+        final int customCount = Math.min(e.customs.size(), 0xffff);
+        out.writeShort(customCount);
+        int i = 0;
+        for (final Map.Entry<String, String> c : e.customs.entrySet()) {
+            if (i++ == customCount) {
+                break;
+            }
+            FileCache.writeString(out, c.getKey());
+            FileCache.writeString(out, c.getValue());
+        }
+    }
+
+    private static void writeOptional(final DataOutputStream out, final String s) throws IOException {
+        if (s != null) {
+            FileCache.writeString(out, s);
+        }
+    }
+
+    private static void writeInt(final DataOutputStream out, final Integer i) throws IOException {
+        if (i != null) {
+            out.writeInt(i);
+        }
+    }
+}
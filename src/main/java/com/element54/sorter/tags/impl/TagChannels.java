@@ -0,0 +1,58 @@
+package com.element54.sorter.tags.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Positional reads of tag and header bytes, shared by the tag readers and
+// the payload hasher.
+public final class TagChannels {
+
+    private TagChannels() {
+    }
+
+    // returns the bytes read, less than len only at the end of the file
+    public static int read(final FileChannel channel, long position, final byte[] b, final int off, final int len)
+            throws IOException {
+        final ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+        while (buf.hasRemaining()) {
+            final int n = channel.read(buf, position);
+            if (n < 0) {
+                break;
+            }
+            position += n;
+        }
+        return buf.position() - off;
+    }
+
+    static byte[] readFully(final FileChannel channel, final long position, final int len) throws IOException {
+        final byte[] b = new byte[len];
+        readFully(channel, position, b, 0, len);
+        return b;
+    }
+
+    static void readFully(final FileChannel channel, final long position, final byte[] b, final int off,
+            final int len) throws IOException {
+        if (read(channel, position, b, off, len) < len) {
+            throw new EOFException("tag exceeds file");
+        }
+    }
+
+    static boolean startsWith(final byte[] b, final int off, final String magic) {
+        if (off + magic.length() > b.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length(); i++) {
+            if (b[off + i] != (byte) magic.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int int32LE(final byte[] b, final int off) {
+        return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8) | ((b[off + 2] & 0xff) << 16)
+                | ((b[off + 3] & 0xff) << 24);
+    }
+}
@@ -0,0 +1,50 @@
+package com.element54.sorter.tags.impl;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class TagValues {
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("^(\\d+)(/\\d+)?$");
+    private static final Pattern DATE_PATTERN = Pattern.compile("^(\\d{4})([-T].*)?$");
+
+    public static String filterVarious(final String artist) {
+        if ("Various Artists".equalsIgnoreCase(artist)) {
+            return null;
+        }
+        return artist;
+    }
+
+    public static Integer parseNumber(final String str) {
+        if (str == null) {
+            return null;
+        }
+        final Matcher m = NUMBER_PATTERN.matcher(str);
+        if (m.matches()) {
+            return Integer.valueOf(m.group(1));
+        }
+        return null;
+    }
+
+    public static Integer parseYear(final String str) {
+        if (str == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(str);
+        } catch (final NumberFormatException e) {
+            return parseNumber(str);
+        }
+    }
+
+    // years of full dates like "2001-05-01" as written by FLAC, Ogg and MP4
+    public static Integer parseDate(final String str) {
+        if (str == null) {
+            return null;
+        }
+        final Matcher m = DATE_PATTERN.matcher(str);
+        if (m.matches()) {
+            return Integer.valueOf(m.group(1));
+        }
+        return parseYear(str);
+    }
+}
@@ -0,0 +1,71 @@
+package com.element54.sorter.tags.impl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.element54.sorter.tags.AudioTag;
+
+// Vorbis comments as used by FLAC, Ogg Vorbis and Opus: a little endian
+// length prefixed vendor string followed by "KEY=value" entries.
+public class VorbisComments {
+
+    private VorbisComments() {
+    }
+
+    public static Map<String, String> parse(final byte[] data, final int offset) throws IOException {
+        final Map<String, String> comments = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        int pos = offset;
+        pos = skip(data, pos, 4 + length(data, pos));
+        final int count = length(data, pos);
+        pos += 4;
+        for (int i = 0; i < count; i++) {
+            final int len = length(data, pos);
+            pos = skip(data, pos, 4 + len);
+            final String comment = new String(data, pos - len, len, StandardCharsets.UTF_8);
+            final int eq = comment.indexOf('=');
+            if (eq > 0) {
+                comments.putIfAbsent(comment.substring(0, eq), comment.substring(eq + 1));
+            }
+        }
+        return comments;
+    }
+
+    private static int length(final byte[] data, final int pos) throws IOException {
+        if (pos + 4 > data.length) {
+            throw new IOException("truncated vorbis comment");
+        }
+        return TagChannels.int32LE(data, pos);
+    }
+
+    private static int skip(final byte[] data, final int pos, final int len) throws IOException {
+        if (len < 0 || len > data.length - pos) {
+            throw new IOException("truncated vorbis comment");
+        }
+        return pos + len;
+    }
+
+    public static AudioTag createTag(final Map<String, String> comments, final Path file) {
+        final Map<String, String> customs = new TreeMap<>(comments);
+        final String artist = customs.remove("ARTIST");
+        String albumArtist = customs.remove("ALBUMARTIST");
+        final String albumArtist2 = customs.remove("ALBUM ARTIST");
+        if (albumArtist == null) {
+            albumArtist = albumArtist2;
+        }
+        final String album = customs.remove("ALBUM");
+        final String title = customs.remove("TITLE");
+        Integer year = TagValues.parseDate(customs.remove("DATE"));
+        final String yearValue = customs.remove("YEAR");
+        if (year == null) {
+            year = TagValues.parseDate(yearValue);
+        }
+        final Integer track = TagValues.parseNumber(customs.remove("TRACKNUMBER"));
+        final Integer disk = TagValues.parseNumber(customs.remove("DISCNUMBER"));
+        final boolean compilation = "1".equals(customs.remove("COMPILATION"));
+        return new BasicAudioTag(file, TagValues.filterVarious(artist), TagValues.filterVarious(albumArtist), album,
+                title, year, track, disk, compilation, customs);
+    }
+}
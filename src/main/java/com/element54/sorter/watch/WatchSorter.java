@@ -0,0 +1,304 @@
+package com.element54.sorter.watch;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.element54.sorter.SortEntry;
+import com.element54.sorter.SorterService;
+import com.element54.sorter.SorterServiceException;
+import com.element54.sorter.move.MoveEngine;
+import com.element54.utils.file.PathUtils;
+
+// Sorts files as they appear below the input folder. A file is only
+// processed once its size and modification time did not change for the
+// settle time, so files still being copied are left alone. Pending files are
+// kept in the order of their last change, so each poll only stats the ones
+// that may have settled. At most maxPending files are tracked; while that
+// many are waiting no further events are taken, they stay queued in the
+// watch service (an overflow leads to a rescan of the tree). A file found
+// while the limit is reached otherwise, by a rescan or in one batch of
+// events, marks its folder to be listed again once there is room.
+public class WatchSorter {
+    private static final int BATCH_SIZE = 256;
+
+    private static final class Pending {
+        long size = -1;
+        long modified = -1;
+        long changed;
+
+        Pending(final long now) {
+            this.changed = now;
+        }
+    }
+
+    private final SorterService sorterService;
+    private final MoveEngine moveEngine;
+    private final Path in;
+    private final Path out;
+    private final long settleNanos;
+    private final int maxPending;
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    // in the order of their last change
+    private final Map<Path, Pending> pending = new LinkedHashMap<>();
+    // folders with files dropped at the limit
+    private final Set<Path> dirty = new LinkedHashSet<>();
+    // files that could not be sorted, by modification time; found again
+    // unchanged they are not retried. Deleted files are dropped, the oldest
+    // beyond maxPending too, for deletes the watch service did not report.
+    private final Map<Path, Long> failed;
+
+    public WatchSorter(final SorterService sorterService, final MoveEngine moveEngine, final Path in, final Path out,
+            final long settleMillis, final int maxPending) {
+        super();
+        this.sorterService = sorterService;
+        this.moveEngine = moveEngine;
+        this.in = in;
+        this.out = out;
+        this.settleNanos = TimeUnit.MILLISECONDS.toNanos(settleMillis);
+        this.maxPending = Math.max(1, maxPending);
+        this.failed = new LinkedHashMap<Path, Long>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Path, Long> eldest) {
+                return size() > WatchSorter.this.maxPending;
+            }
+        };
+    }
+
+    public void run() throws IOException, InterruptedException {
+        try (WatchService watchService = this.in.getFileSystem().newWatchService()) {
+            register(watchService, this.in, false);
+            final long pollMillis = Math.max(100, TimeUnit.NANOSECONDS.toMillis(this.settleNanos) / 4);
+            while (true) {
+                if (this.pending.size() < this.maxPending) {
+                    final WatchKey key = watchService.poll(pollMillis, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        handle(watchService, key);
+                    }
+                } else {
+                    Thread.sleep(pollMillis);
+                }
+                processStable();
+                rescanDirty();
+            }
+        } catch (final ClosedWatchServiceException e) {
+            // shut down
+        }
+    }
+
+    private void handle(final WatchService watchService, final WatchKey key) throws IOException {
+        final Path dir = this.keys.get(key);
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                System.out.println("Watch events lost, rescanning " + this.in.toAbsolutePath());
+                register(watchService, this.in, true);
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            final Path child = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                this.failed.remove(child);
+                continue;
+            }
+            if (Files.isDirectory(child)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    // files may have been created before the folder was registered
+                    register(watchService, child, true);
+                }
+            } else {
+                offer(child);
+            }
+        }
+        if (!key.reset()) {
+            this.keys.remove(key);
+        }
+    }
+
+    private void register(final WatchService watchService, final Path root, final boolean offerFiles)
+            throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs)
+                    throws IOException {
+                final WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                WatchSorter.this.keys.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                if (offerFiles) {
+                    offer(file, false);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void offer(final Path file) {
+        offer(file, true);
+    }
+
+    // changed: the file was reported changed, not just found by a walk; a
+    // found file may be checked at once
+    private void offer(final Path file, final boolean changed) {
+        if (!PathUtils.isAudioFileName(PathUtils.getFileName(file))) {
+            return;
+        }
+        if (changed) {
+            this.failed.remove(file);
+        } else if (this.failed.containsKey(file) && this.failed.get(file) == lastModified(file)) {
+            return;
+        }
+        final Pending p = this.pending.get(file);
+        if (p != null) {
+            if (changed) {
+                p.changed = System.nanoTime();
+                // moved to the end, the order of last changes
+                this.pending.remove(file);
+                this.pending.put(file, p);
+            }
+        } else if (this.pending.size() < this.maxPending) {
+            final long now = System.nanoTime();
+            this.pending.put(file, new Pending(changed ? now : now - this.settleNanos));
+        } else {
+            final Path dir = file.getParent();
+            if (dir != null) {
+                this.dirty.add(dir);
+            }
+        }
+    }
+
+    // lists folders with dropped files again while there is room
+    private void rescanDirty() {
+        final Iterator<Path> it = this.dirty.iterator();
+        while (it.hasNext() && this.pending.size() < this.maxPending) {
+            final Path dir = it.next();
+            it.remove();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (final Path file : files) {
+                    if (!Files.isDirectory(file)) {
+                        // a drop puts the folder back
+                        offer(file, false);
+                    }
+                }
+            } catch (final IOException e) {
+                // folder gone
+            }
+            if (this.dirty.contains(dir)) {
+                // full again, the rest waits for the next round
+                break;
+            }
+        }
+    }
+
+    private void processStable() {
+        final long now = System.nanoTime();
+        final long nowMillis = System.currentTimeMillis();
+        final long settleMillis = TimeUnit.NANOSECONDS.toMillis(this.settleNanos);
+        final List<Path> batch = new ArrayList<>();
+        final List<Map.Entry<Path, Pending>> changed = new ArrayList<>();
+        final Iterator<Map.Entry<Path, Pending>> it = this.pending.entrySet().iterator();
+        while (it.hasNext() && batch.size() < BATCH_SIZE) {
+            final Map.Entry<Path, Pending> e = it.next();
+            final Pending p = e.getValue();
+            if (now - p.changed < this.settleNanos) {
+                // the rest changed later
+                break;
+            }
+            final BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(e.getKey(), BasicFileAttributes.class);
+            } catch (final IOException ex) {
+                it.remove();
+                continue;
+            }
+            if (!attrs.isRegularFile()) {
+                it.remove();
+                continue;
+            }
+            final long modified = attrs.lastModifiedTime().toMillis();
+            // on the first look a file last modified long enough ago has settled
+            final boolean settled = p.size < 0 ? nowMillis - modified >= settleMillis
+                    : attrs.size() == p.size && modified == p.modified;
+            it.remove();
+            if (settled) {
+                batch.add(e.getKey());
+            } else {
+                p.size = attrs.size();
+                p.modified = modified;
+                p.changed = now;
+                changed.add(e);
+            }
+        }
+        for (final Map.Entry<Path, Pending> e : changed) {
+            this.pending.put(e.getKey(), e.getValue());
+        }
+        for (final Path file : batch) {
+            process(file);
+        }
+    }
+
+    // -1 for a file gone
+    private static long lastModified(final Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (final IOException e) {
+            return -1;
+        }
+    }
+
+    private void process(final Path file) {
+        final SortEntry entry;
+        try {
+            entry = this.sorterService.getEntry(file, this.out);
+        } catch (final SorterServiceException e) {
+            System.out.println(file.toAbsolutePath() + " FAILED: " + e.getMessage());
+            this.failed.put(file, lastModified(file));
+            return;
+        } catch (final RuntimeException e) {
+            // a tag reader choking on one file must not stop the watch
+            System.out.println(file.toAbsolutePath() + " FAILED: " + e);
+            this.failed.put(file, lastModified(file));
+            return;
+        }
+        System.out.println(file.toAbsolutePath() + " -> " + entry.getDest().toAbsolutePath());
+        try {
+            this.moveEngine.move(entry);
+        } catch (final NoSuchFileException e) {
+            System.out.println(file.toAbsolutePath() + " FAILED: vanished");
+        } catch (final IOException | RuntimeException e) {
+            System.out.println(file.toAbsolutePath() + " FAILED: " + e);
+            this.failed.put(file, lastModified(file));
+        }
+    }
+}
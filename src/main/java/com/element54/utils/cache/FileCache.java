@@ -0,0 +1,160 @@
+package com.element54.utils.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Values computed from file contents, kept across runs in one file. An entry
+// is valid while its file keeps the size and modification time it had when
+// the value was put. Saving drops entries that were not used for a long time
+// and, above the size cap, the least recently used ones.
+public class FileCache<V> {
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(90);
+
+    public interface Codec<V> {
+        public void write(DataOutputStream out, V value) throws IOException;
+
+        public V read(DataInputStream in) throws IOException;
+    }
+
+    private static class Entry<V> {
+        final long size;
+        final long modified;
+        volatile long used;
+        final V value;
+
+        Entry(final long size, final long modified, final long used, final V value) {
+            this.size = size;
+            this.modified = modified;
+            this.used = used;
+            this.value = value;
+        }
+    }
+
+    private final Path file;
+    private final int magic;
+    private final int version;
+    private final int maxEntries;
+    private final Codec<V> codec;
+    private final long now = System.currentTimeMillis();
+    private final Map<String, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    // magic and version identify the format of the values, a file with
+    // other ones is ignored
+    public FileCache(final Path file, final int magic, final int version, final int maxEntries,
+            final Codec<V> codec) {
+        super();
+        this.file = file;
+        this.magic = magic;
+        this.version = version;
+        this.maxEntries = maxEntries;
+        this.codec = codec;
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    public V get(final String key, final long size, final long modified) {
+        final Entry<V> entry = this.entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.size != size || entry.modified != modified) {
+            this.entries.remove(key, entry);
+            return null;
+        }
+        entry.used = this.now;
+        return entry.value;
+    }
+
+    public void put(final String key, final long size, final long modified, final V value) {
+        this.entries.put(key, new Entry<>(size, modified, this.now, value));
+    }
+
+    public void load() throws IOException {
+        if (!Files.exists(this.file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.file)))) {
+            if (in.readInt() != this.magic || in.readInt() != this.version) {
+                // unknown format, start over
+                return;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String key = readString(in);
+                final long size = in.readLong();
+                final long modified = in.readLong();
+                final long used = in.readLong();
+                this.entries.put(key, new Entry<>(size, modified, used, this.codec.read(in)));
+            }
+        } catch (final EOFException e) {
+            // truncated cache, keep what was read
+        }
+    }
+
+    public void save() throws IOException {
+        final long oldest = this.now - MAX_AGE;
+        final List<Map.Entry<String, Entry<V>>> keep = new ArrayList<>(this.entries.size());
+        for (final Map.Entry<String, Entry<V>> e : this.entries.entrySet()) {
+            if (e.getValue().used >= oldest) {
+                keep.add(e);
+            }
+        }
+        if (keep.size() > this.maxEntries) {
+            keep.sort(Comparator.comparingLong((Map.Entry<String, Entry<V>> e) -> e.getValue().used).reversed());
+            keep.subList(this.maxEntries, keep.size()).clear();
+        }
+        final Path tmp = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(this.magic);
+                out.writeInt(this.version);
+                out.writeInt(keep.size());
+                for (final Map.Entry<String, Entry<V>> e : keep) {
+                    final Entry<V> entry = e.getValue();
+                    writeString(out, e.getKey());
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.modified);
+                    out.writeLong(entry.used);
+                    this.codec.write(out, entry.value);
+                }
+            }
+            Files.move(tmp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // writeUTF is limited to 64 KB, which long comment or TXXX values exceed
+    public static void writeString(final DataOutputStream out, final String s) throws IOException {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("corrupt cache");
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
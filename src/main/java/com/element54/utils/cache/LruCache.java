@@ -0,0 +1,73 @@
+package com.element54.utils.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Thread-safe LRU cache made of independently locked segments, each an
+// access ordered LinkedHashMap evicting its eldest entry when full.
+public class LruCache<K, V> {
+    private static final int SEGMENTS = 16;
+
+    private final Map<K, V>[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public LruCache(final int maxEntries) {
+        super();
+        final int perSegment = Math.max(1, maxEntries / SEGMENTS);
+        this.segments = new Map[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            this.segments[i] = new LinkedHashMap<K, V>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+                    return size() > perSegment;
+                }
+            };
+        }
+    }
+
+    public V get(final K key) {
+        final Map<K, V> segment = segment(key);
+        final V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value == null) {
+            this.misses.increment();
+        } else {
+            this.hits.increment();
+        }
+        return value;
+    }
+
+    public void put(final K key, final V value) {
+        final Map<K, V> segment = segment(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    public double getHitRate() {
+        final long h = getHits();
+        final long total = h + getMisses();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    private Map<K, V> segment(final K key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return this.segments[(h & 0x7fffffff) % SEGMENTS];
+    }
+}
@@ -0,0 +1,54 @@
+package com.element54.utils.concurrent;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+// Runs blocking file work on one executor per device, so the reads of one
+// device do not wait for the threads another device keeps busy. Each device
+// runs at most perDevice tasks at once, started in submission order. Callers
+// that consume the results in submission order still wait for the slowest
+// device, see SortPipeline.
+public class DeviceScheduler {
+    private final int perDevice;
+    private final boolean virtual;
+    private final Map<Object, ExecutorService> executors = new ConcurrentHashMap<>();
+    private final Map<Object, Semaphore> permits = new ConcurrentHashMap<>();
+
+    public DeviceScheduler(final int perDevice, final boolean virtual) {
+        super();
+        this.perDevice = Math.max(1, perDevice);
+        this.virtual = virtual && Workers.isVirtualAvailable();
+    }
+
+    public <T> Future<T> submit(final Object device, final Callable<T> task) {
+        final ExecutorService executor = this.executors.computeIfAbsent(device,
+                d -> Workers.create(this.perDevice, this.virtual));
+        if (!this.virtual) {
+            return executor.submit(task);
+        }
+        // a virtual thread per task, the fair semaphore keeps the order
+        final Semaphore semaphore = this.permits.computeIfAbsent(device, d -> new Semaphore(this.perDevice, true));
+        return executor.submit(() -> {
+            semaphore.acquire();
+            try {
+                return task.call();
+            } finally {
+                semaphore.release();
+            }
+        });
+    }
+
+    public int getDevices() {
+        return this.executors.size();
+    }
+
+    public void shutdownNow() {
+        for (final ExecutorService executor : this.executors.values()) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.element54.utils.concurrent;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Executors for blocking work. Virtual threads (Java 21+) are looked up by
+// reflection so the code still builds and runs on Java 8, where the fixed
+// pool of platform threads is used instead.
+public class Workers {
+    private static final Method NEW_VIRTUAL_EXECUTOR = lookupVirtualExecutor();
+
+    private Workers() {
+    }
+
+    public static boolean isVirtualAvailable() {
+        return NEW_VIRTUAL_EXECUTOR != null;
+    }
+
+    // virtual: one virtual thread per task if available, callers bound the
+    // concurrency themselves; otherwise a pool of the given size
+    public static ExecutorService create(final int threads, final boolean virtual) {
+        if (virtual && NEW_VIRTUAL_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+            } catch (final IllegalAccessException | InvocationTargetException e) {
+                // fall back to platform threads
+            }
+        }
+        return Executors.newFixedThreadPool(Math.max(1, threads));
+    }
+
+    private static Method lookupVirtualExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (final NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
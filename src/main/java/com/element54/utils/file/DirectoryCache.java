@@ -0,0 +1,92 @@
+package com.element54.utils.file;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Remembers folders known to exist, so creating the parent of every moved
+// file costs no file system call once the folder was seen. Creation is
+// guarded by striped locks: each folder is created by exactly one thread,
+// the others wait and then find it in the cache. A folder is created before
+// its parents are looked at, so the walk up stops at the first folder that
+// exists, the output root at the latest; a folder that already exists costs
+// one failed create and one stat.
+public class DirectoryCache {
+    private static final int STRIPES = 64;
+
+    private final int maxEntries;
+    private final Map<Path, Boolean> known = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[STRIPES];
+    private final LongAdder created = new LongAdder();
+
+    public DirectoryCache(final int maxEntries) {
+        super();
+        this.maxEntries = maxEntries;
+        for (int i = 0; i < STRIPES; i++) {
+            this.locks[i] = new Object();
+        }
+    }
+
+    public long getCreated() {
+        return this.created.sum();
+    }
+
+    public int size() {
+        return this.known.size();
+    }
+
+    public void invalidate(final Path dir) {
+        this.known.remove(dir.toAbsolutePath());
+    }
+
+    public void createDirectories(final Path dir) throws IOException {
+        ensure(dir.toAbsolutePath());
+    }
+
+    // creates the folder, and its parents only if that fails for lack of
+    // them, so no folder above the first existing one is touched
+    private void ensure(final Path dir) throws IOException {
+        if (this.known.containsKey(dir)) {
+            return;
+        }
+        try {
+            create(dir);
+        } catch (final NoSuchFileException e) {
+            final Path parent = dir.getParent();
+            if (parent == null) {
+                throw e;
+            }
+            ensure(parent);
+            create(dir);
+        }
+    }
+
+    private void create(final Path dir) throws IOException {
+        synchronized (this.locks[(dir.hashCode() & 0x7fffffff) % STRIPES]) {
+            if (this.known.containsKey(dir)) {
+                return;
+            }
+            try {
+                Files.createDirectory(dir);
+                this.created.increment();
+            } catch (final FileAlreadyExistsException e) {
+                if (!Files.isDirectory(dir)) {
+                    throw e;
+                }
+            }
+            remember(dir);
+        }
+    }
+
+    private void remember(final Path dir) {
+        if (this.known.size() >= this.maxEntries) {
+            this.known.clear();
+        }
+        this.known.put(dir, Boolean.TRUE);
+    }
+}
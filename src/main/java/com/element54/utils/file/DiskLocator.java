@@ -0,0 +1,73 @@
+package com.element54.utils.file;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Finds the device and inode of files from the attributes the walker read,
+// without reading them again: on unix the file key names both, printed as
+// "(dev=..,ino=..)". Elsewhere the file store of the folder stands in for
+// the device and the inode is 0. On most file systems inode numbers follow
+// the allocation order, so reading a folder by inode stays close to the
+// physical layout.
+public class DiskLocator {
+
+    public static final class Location {
+        private final Object device;
+        private final long inode;
+
+        Location(final Object device, final long inode) {
+            this.device = device;
+            this.inode = inode;
+        }
+
+        public Object getDevice() {
+            return this.device;
+        }
+
+        public long getInode() {
+            return this.inode;
+        }
+    }
+
+    // for files that cannot be located
+    public static final Location UNKNOWN = new Location("unknown", 0);
+
+    private static final int MAX_STORES = 4096;
+
+    private final Map<Path, FileStore> stores = new ConcurrentHashMap<>();
+
+    public DiskLocator() {
+        super();
+    }
+
+    public Location locate(final Path file, final BasicFileAttributes attrs) throws IOException {
+        final Object key = attrs.fileKey();
+        if (key != null) {
+            final String s = key.toString();
+            final int dev = s.indexOf("(dev=");
+            final int ino = s.indexOf(",ino=");
+            if (dev == 0 && ino > 0 && s.endsWith(")")) {
+                try {
+                    return new Location(s.substring(5, ino), Long.parseLong(s.substring(ino + 5, s.length() - 1)));
+                } catch (final NumberFormatException e) {
+                    // not a unix key
+                }
+            }
+        }
+        final Path dir = file.toAbsolutePath().getParent();
+        FileStore store = this.stores.get(dir);
+        if (store == null) {
+            store = Files.getFileStore(dir);
+            if (this.stores.size() >= MAX_STORES) {
+                this.stores.clear();
+            }
+            this.stores.put(dir, store);
+        }
+        return new Location(store, 0);
+    }
+}
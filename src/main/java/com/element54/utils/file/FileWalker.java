@@ -0,0 +1,361 @@
+package com.element54.utils.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.element54.utils.metrics.Timer;
+
+// Walks a tree reading the attributes of every entry exactly once. Sorted
+// walks list each folder and visit it in path order, depth first; unsorted
+// walks stream entries in the order the file system returns them. A folder
+// with more entries than the budget is sorted externally: sorted runs of the
+// listing are spilled to temporary files and merged while visiting.
+public class FileWalker {
+
+    public static final int DEFAULT_MAX_ENTRIES = 65536;
+
+    private static final Comparator<Child> ORDER = Comparator.comparing(c -> c.path);
+
+    public interface Visitor {
+        public void visitFile(Path file, BasicFileAttributes attrs) throws IOException;
+    }
+
+    private static final class Child {
+        final Path path;
+        final BasicFileAttributes attrs;
+
+        Child(final Path path, final BasicFileAttributes attrs) {
+            this.path = path;
+            this.attrs = attrs;
+        }
+    }
+
+    // attributes of a spilled entry, as far as they survive the run file
+    private static final class SpilledAttributes implements BasicFileAttributes {
+        private static final byte FILE = 1;
+        private static final byte DIRECTORY = 2;
+        private static final byte LINK = 3;
+        private static final byte OTHER = 4;
+
+        final byte type;
+        final long size;
+        final FileTime modified;
+        final FileTime accessed;
+        final FileTime created;
+        // the string of the original key, which on unix names device and inode
+        final String key;
+
+        SpilledAttributes(final byte type, final long size, final FileTime modified, final FileTime accessed,
+                final FileTime created, final String key) {
+            this.type = type;
+            this.size = size;
+            this.modified = modified;
+            this.accessed = accessed;
+            this.created = created;
+            this.key = key;
+        }
+
+        static byte typeOf(final BasicFileAttributes attrs) {
+            if (attrs.isRegularFile()) {
+                return FILE;
+            } else if (attrs.isDirectory()) {
+                return DIRECTORY;
+            } else if (attrs.isSymbolicLink()) {
+                return LINK;
+            }
+            return OTHER;
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return this.modified;
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return this.accessed;
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return this.created;
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return this.type == FILE;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return this.type == DIRECTORY;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return this.type == LINK;
+        }
+
+        @Override
+        public boolean isOther() {
+            return this.type == OTHER;
+        }
+
+        @Override
+        public long size() {
+            return this.size;
+        }
+
+        @Override
+        public Object fileKey() {
+            return this.key;
+        }
+    }
+
+    // one spilled run being merged, positioned at its smallest unvisited entry
+    private static final class Run implements Closeable {
+        final DataInputStream in;
+        Child head;
+
+        Run(final Path file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+        }
+
+        boolean next() throws IOException {
+            final String name;
+            try {
+                name = this.in.readUTF();
+            } catch (final EOFException e) {
+                this.head = null;
+                return false;
+            }
+            final byte type = this.in.readByte();
+            final long size = this.in.readLong();
+            final FileTime modified = FileTime.fromMillis(this.in.readLong());
+            final FileTime accessed = FileTime.fromMillis(this.in.readLong());
+            final FileTime created = FileTime.fromMillis(this.in.readLong());
+            final String key = this.in.readUTF();
+            this.head = new Child(PathUtils.toPath(name),
+                    new SpilledAttributes(type, size, modified, accessed, created, key.isEmpty() ? null : key));
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.in.close();
+        }
+    }
+
+    private final boolean sorted;
+    private final Timer listTimer;
+    private final int maxEntries;
+
+    public FileWalker(final boolean sorted) {
+        this(sorted, new Timer());
+    }
+
+    public FileWalker(final boolean sorted, final Timer listTimer) {
+        this(sorted, listTimer, DEFAULT_MAX_ENTRIES);
+    }
+
+    // listTimer records the time spent listing each folder, excluding the
+    // visitor and sub folders; maxEntries is the number of entries of one
+    // folder held in memory while sorting
+    public FileWalker(final boolean sorted, final Timer listTimer, final int maxEntries) {
+        super();
+        this.sorted = sorted;
+        this.listTimer = listTimer;
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    public void walk(final Path root, final Visitor visitor) throws IOException {
+        walk(root, Integer.MAX_VALUE, visitor);
+    }
+
+    // maxDepth 1 visits the files of root only
+    public void walk(final Path root, final int maxDepth, final Visitor visitor) throws IOException {
+        if (this.sorted) {
+            walkSorted(root, maxDepth, visitor);
+        } else {
+            Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), maxDepth,
+                    new SimpleFileVisitor<Path>() {
+                        private final Deque<long[]> listing = new ArrayDeque<>();
+                        private long mark = System.nanoTime();
+
+                        @Override
+                        public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                            lap();
+                            this.listing.push(new long[1]);
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs)
+                                throws IOException {
+                            lap();
+                            if (!attrs.isDirectory()) {
+                                // folders at maxDepth
+                                visitor.visitFile(file, attrs);
+                            }
+                            this.mark = System.nanoTime();
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult postVisitDirectory(final Path dir, final IOException e)
+                                throws IOException {
+                            lap();
+                            FileWalker.this.listTimer.record(this.listing.pop()[0]);
+                            if (e != null) {
+                                throw e;
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        private void lap() {
+                            final long now = System.nanoTime();
+                            if (!this.listing.isEmpty()) {
+                                this.listing.peek()[0] += now - this.mark;
+                            }
+                            this.mark = now;
+                        }
+                    });
+        }
+    }
+
+    private void walkSorted(final Path dir, final int depth, final Visitor visitor) throws IOException {
+        final long start = this.listTimer.start();
+        final List<Child> childs = new ArrayList<>();
+        final List<Path> runs = new ArrayList<>();
+        try {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (final Path child : stream) {
+                    final BasicFileAttributes attrs = readAttributes(child);
+                    if (attrs == null) {
+                        continue;
+                    }
+                    childs.add(new Child(child, attrs));
+                    if (childs.size() >= this.maxEntries) {
+                        runs.add(spill(childs));
+                    }
+                }
+            } catch (final DirectoryIteratorException e) {
+                throw e.getCause();
+            }
+            if (!runs.isEmpty() && !childs.isEmpty()) {
+                runs.add(spill(childs));
+            }
+            childs.sort(ORDER);
+            this.listTimer.stop(start);
+            if (runs.isEmpty()) {
+                for (final Child child : childs) {
+                    visit(child, depth, visitor);
+                }
+            } else {
+                merge(runs, depth, visitor);
+            }
+        } finally {
+            for (final Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    // follows links like the unsorted walk; a dangling link is returned as
+    // the link itself, an entry deleted since listing as null
+    private static BasicFileAttributes readAttributes(final Path child) throws IOException {
+        try {
+            return Files.readAttributes(child, BasicFileAttributes.class);
+        } catch (final NoSuchFileException e) {
+            try {
+                return Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (final NoSuchFileException gone) {
+                return null;
+            }
+        }
+    }
+
+    private void visit(final Child child, final int depth, final Visitor visitor) throws IOException {
+        if (child.attrs.isDirectory()) {
+            if (depth > 1) {
+                walkSorted(child.path, depth - 1, visitor);
+            }
+        } else {
+            visitor.visitFile(child.path, child.attrs);
+        }
+    }
+
+    // sorts and writes the entries to a run file and clears them; paths are
+    // stored as PathUtils names, which keep names that are not valid in the
+    // platform encoding byte for byte
+    private static Path spill(final List<Child> childs) throws IOException {
+        childs.sort(ORDER);
+        final Path file = Files.createTempFile("mediasorter-", ".run");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            for (final Child child : childs) {
+                final BasicFileAttributes attrs = child.attrs;
+                out.writeUTF(PathUtils.toName(child.path));
+                out.writeByte(SpilledAttributes.typeOf(attrs));
+                out.writeLong(attrs.size());
+                out.writeLong(attrs.lastModifiedTime().toMillis());
+                out.writeLong(attrs.lastAccessTime().toMillis());
+                out.writeLong(attrs.creationTime().toMillis());
+                out.writeUTF(attrs.fileKey() == null ? "" : attrs.fileKey().toString());
+            }
+        } catch (final IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        childs.clear();
+        return file;
+    }
+
+    private void merge(final List<Path> files, final int depth, final Visitor visitor) throws IOException {
+        final List<Run> runs = new ArrayList<>(files.size());
+        try {
+            final PriorityQueue<Run> heads = new PriorityQueue<>(files.size(),
+                    Comparator.comparing(r -> r.head, ORDER));
+            for (final Path file : files) {
+                final Run run = new Run(file);
+                runs.add(run);
+                if (run.next()) {
+                    heads.add(run);
+                }
+            }
+            while (!heads.isEmpty()) {
+                final Run run = heads.poll();
+                visit(run.head, depth, visitor);
+                if (run.next()) {
+                    heads.add(run);
+                }
+            }
+        } finally {
+            for (final Run run : runs) {
+                run.close();
+            }
+        }
+    }
+}
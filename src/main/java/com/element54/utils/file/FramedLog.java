@@ -0,0 +1,45 @@
+package com.element54.utils.file;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+// Record framing for append-only logs: length, CRC32 and body. A frame cut
+// short by a crash or overwritten with garbage reads as the end of the log.
+public class FramedLog {
+    public static final int MAX_FRAME_LENGTH = 1024 * 1024;
+
+    private FramedLog() {
+    }
+
+    public static ByteBuffer frame(final byte[] body, final int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(body, 0, length);
+        final ByteBuffer buf = ByteBuffer.allocate(8 + length);
+        buf.putInt(length);
+        buf.putInt((int) crc.getValue());
+        buf.put(body, 0, length);
+        buf.flip();
+        return buf;
+    }
+
+    // returns the next body or null at the (possibly torn) end of the log
+    public static byte[] read(final DataInputStream in) throws IOException {
+        try {
+            final int length = in.readInt();
+            final int checksum = in.readInt();
+            if (length <= 0 || length > MAX_FRAME_LENGTH) {
+                return null;
+            }
+            final byte[] body = new byte[length];
+            in.readFully(body);
+            final CRC32 crc = new CRC32();
+            crc.update(body, 0, length);
+            return (int) crc.getValue() == checksum ? body : null;
+        } catch (final EOFException e) {
+            return null;
+        }
+    }
+}
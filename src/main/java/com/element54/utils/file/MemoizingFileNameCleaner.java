@@ -0,0 +1,65 @@
+package com.element54.utils.file;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import com.element54.utils.cache.LruCache;
+
+// Remembers the paths of cleaned folder names: the tracks of an album resolve
+// the same artist and album folders over and over. Names with an extension
+// are file names, which rarely repeat, and are passed through.
+public class MemoizingFileNameCleaner implements FileNameCleaner {
+
+    private static final class Key {
+        final Path parent;
+        final String name;
+        final int hash;
+
+        Key(final Path parent, final String name) {
+            this.parent = parent;
+            this.name = name;
+            this.hash = 31 * parent.hashCode() + name.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key k = (Key) o;
+            return this.hash == k.hash && this.name.equals(k.name) && this.parent.equals(k.parent);
+        }
+    }
+
+    private final FileNameCleaner fileNameCleaner;
+    private final LruCache<Key, Path> cache;
+
+    public MemoizingFileNameCleaner(final FileNameCleaner fileNameCleaner, final int maxEntries) {
+        super();
+        this.fileNameCleaner = fileNameCleaner;
+        this.cache = new LruCache<>(maxEntries);
+    }
+
+    @Override
+    public Path create(final Path parent, final String name, final String extension) throws IOException {
+        if (extension != null) {
+            return this.fileNameCleaner.create(parent, name, extension);
+        }
+        final Key key = new Key(parent, name);
+        Path path = this.cache.get(key);
+        if (path == null) {
+            path = this.fileNameCleaner.create(parent, name, null);
+            this.cache.put(key, path);
+        }
+        return path;
+    }
+
+    public LruCache<?, ?> getCache() {
+        return this.cache;
+    }
+}
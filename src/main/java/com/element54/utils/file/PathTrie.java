@@ -0,0 +1,282 @@
+package com.element54.utils.file;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Interns absolute paths as nodes of a trie, one node per path segment, so
+// the many files below one album folder share its prefix. Nodes are int ids
+// into parallel arrays and segment names are stored once each, utf-8 encoded
+// in one byte pool; a name that does not survive the decoding to a string is
+// kept as its Path. Each node carries an int value, NONE unless set.
+public class PathTrie {
+    public static final int NONE = -1;
+
+    private static final int ROOT = 0;
+    private static final long FREE = -1L;
+
+    private FileSystem fileSystem = FileSystems.getDefault();
+    // segment i is pool[offsets[i]] up to pool[offsets[i + 1]]
+    private byte[] pool;
+    private int[] offsets;
+    private int segmentCount;
+    private int[] segmentTable;
+    private final Map<Path, Integer> rawIds = new HashMap<>();
+    private final Map<Integer, Path> raw = new HashMap<>();
+    private int[] parents;
+    private int[] names;
+    private int[] values;
+    private int size;
+    // child lookup, keyed by parent and segment id
+    private long[] keys;
+    private int[] children;
+
+    public PathTrie() {
+        super();
+        clear();
+    }
+
+    public void clear() {
+        this.pool = new byte[4096];
+        this.offsets = new int[65];
+        this.segmentCount = 0;
+        this.segmentTable = new int[128];
+        Arrays.fill(this.segmentTable, NONE);
+        this.rawIds.clear();
+        this.raw.clear();
+        this.parents = new int[64];
+        this.names = new int[64];
+        this.values = new int[64];
+        this.keys = new long[128];
+        this.children = new int[128];
+        Arrays.fill(this.keys, FREE);
+        this.parents[ROOT] = NONE;
+        this.names[ROOT] = NONE;
+        this.values[ROOT] = NONE;
+        this.size = 1;
+    }
+
+    // number of nodes, the root included
+    public int size() {
+        return this.size;
+    }
+
+    public int intern(final Path path) {
+        final Path absolute = path.toAbsolutePath();
+        this.fileSystem = absolute.getFileSystem();
+        int node = child(ROOT, segmentId(absolute.getRoot(), true), true);
+        for (final Path name : absolute) {
+            node = child(node, segmentId(name, true), true);
+        }
+        return node;
+    }
+
+    // the node of the path, or NONE if it was never interned; O(depth)
+    public int find(final Path path) {
+        final Path absolute = path.toAbsolutePath();
+        int node = child(ROOT, segmentId(absolute.getRoot(), false), false);
+        for (final Path name : absolute) {
+            if (node == NONE) {
+                return NONE;
+            }
+            node = child(node, segmentId(name, false), false);
+        }
+        return node;
+    }
+
+    public Path toPath(final int node) {
+        int depth = 0;
+        for (int n = node; n != ROOT; n = this.parents[n]) {
+            depth++;
+        }
+        final int[] path = new int[depth];
+        boolean hasRaw = false;
+        for (int n = node; n != ROOT; n = this.parents[n]) {
+            path[--depth] = this.names[n];
+            hasRaw |= this.raw.containsKey(this.names[n]);
+        }
+        if (hasRaw) {
+            Path result = segmentPath(path[0]);
+            for (int i = 1; i < path.length; i++) {
+                result = result.resolve(segmentPath(path[i]));
+            }
+            return result;
+        }
+        final String[] more = new String[path.length - 1];
+        for (int i = 1; i < path.length; i++) {
+            more[i - 1] = segmentString(path[i]);
+        }
+        return this.fileSystem.getPath(segmentString(path[0]), more);
+    }
+
+    public int getValue(final int node) {
+        return this.values[node];
+    }
+
+    public void setValue(final int node, final int value) {
+        this.values[node] = value;
+    }
+
+    // NONE if absent and not created
+    private int segmentId(final Path segment, final boolean create) {
+        final String name = segment.toString();
+        if (isRaw(segment, name)) {
+            Integer id = this.rawIds.get(segment);
+            if (id == null && create) {
+                id = addSegment(new byte[0]);
+                this.rawIds.put(segment, id);
+                this.raw.put(id, segment);
+            }
+            return id == null ? NONE : id;
+        }
+        final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        final int mask = this.segmentTable.length - 1;
+        int slot = Arrays.hashCode(bytes) * 0x9e3779b9 >>> 1 & mask;
+        while (this.segmentTable[slot] != NONE) {
+            final int id = this.segmentTable[slot];
+            if (equals(id, bytes)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!create) {
+            return NONE;
+        }
+        final int id = addSegment(bytes);
+        this.segmentTable[slot] = id;
+        if (this.segmentCount * 2 > this.segmentTable.length) {
+            rehashSegments();
+        }
+        return id;
+    }
+
+    // names with bytes invalid in the platform encoding decode lossily,
+    // with replacement characters
+    private static boolean isRaw(final Path segment, final String name) {
+        if (name.indexOf('?') < 0 && name.indexOf('\ufffd') < 0) {
+            return false;
+        }
+        try {
+            return !segment.getFileSystem().getPath(name).equals(segment);
+        } catch (final InvalidPathException e) {
+            return true;
+        }
+    }
+
+    private int addSegment(final byte[] bytes) {
+        final int id = this.segmentCount++;
+        if (id + 2 > this.offsets.length) {
+            this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+        }
+        final int start = this.offsets[id];
+        if (start + bytes.length > this.pool.length) {
+            this.pool = Arrays.copyOf(this.pool, Math.max(this.pool.length * 2, start + bytes.length));
+        }
+        System.arraycopy(bytes, 0, this.pool, start, bytes.length);
+        this.offsets[id + 1] = start + bytes.length;
+        return id;
+    }
+
+    private boolean equals(final int id, final byte[] bytes) {
+        final int start = this.offsets[id];
+        if (this.offsets[id + 1] - start != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (this.pool[start + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehashSegments() {
+        this.segmentTable = new int[this.segmentTable.length * 2];
+        Arrays.fill(this.segmentTable, NONE);
+        final int mask = this.segmentTable.length - 1;
+        for (int id = 0; id < this.segmentCount; id++) {
+            if (this.raw.containsKey(id)) {
+                continue;
+            }
+            final byte[] bytes = Arrays.copyOfRange(this.pool, this.offsets[id], this.offsets[id + 1]);
+            int slot = Arrays.hashCode(bytes) * 0x9e3779b9 >>> 1 & mask;
+            while (this.segmentTable[slot] != NONE) {
+                slot = (slot + 1) & mask;
+            }
+            this.segmentTable[slot] = id;
+        }
+    }
+
+    private String segmentString(final int id) {
+        final int start = this.offsets[id];
+        return new String(this.pool, start, this.offsets[id + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    private Path segmentPath(final int id) {
+        final Path path = this.raw.get(id);
+        return path != null ? path : this.fileSystem.getPath(segmentString(id));
+    }
+
+    private int child(final int parent, final int name, final boolean create) {
+        if (name == NONE) {
+            return NONE;
+        }
+        final long key = (long) parent << 32 | name & 0xffffffffL;
+        final int mask = this.keys.length - 1;
+        int slot = slot(key, mask);
+        while (this.keys[slot] != FREE) {
+            if (this.keys[slot] == key) {
+                return this.children[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!create) {
+            return NONE;
+        }
+        final int node = this.size++;
+        if (node == this.parents.length) {
+            final int capacity = node * 2;
+            this.parents = Arrays.copyOf(this.parents, capacity);
+            this.names = Arrays.copyOf(this.names, capacity);
+            this.values = Arrays.copyOf(this.values, capacity);
+        }
+        this.parents[node] = parent;
+        this.names[node] = name;
+        this.values[node] = NONE;
+        this.keys[slot] = key;
+        this.children[slot] = node;
+        if (this.size * 2 > this.keys.length) {
+            rehash();
+        }
+        return node;
+    }
+
+    private void rehash() {
+        final long[] keys = this.keys;
+        final int[] children = this.children;
+        this.keys = new long[keys.length * 2];
+        this.children = new int[keys.length * 2];
+        Arrays.fill(this.keys, FREE);
+        final int mask = this.keys.length - 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) {
+                int slot = slot(keys[i], mask);
+                while (this.keys[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                this.keys[slot] = keys[i];
+                this.children[slot] = children[i];
+            }
+        }
+    }
+
+    private static int slot(final long key, final int mask) {
+        final long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -1,62 +1,118 @@
-package com.element54.utils.file;
-
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-public class PathUtils {
-    private static final Pattern EXTENSION_PATTERN = Pattern.compile("\\.(\\w+)\\z");
-
-    public static boolean isMediaFile(final Path file) {
-        return isVideoFile(file) || isAudioFile(file) || isEbookFile(file);
-    }
-
-    public static boolean isVideoFile(final Path file) {
-        return isFileWithExtenstion(file, "avi") || isFileWithExtenstion(file, "mpg")
-                || isFileWithExtenstion(file, "mkv") || isFileWithExtenstion(file, "ts")
-                || isFileWithExtenstion(file, "xvid") || isFileWithExtenstion(file, "divx")
-                || isFileWithExtenstion(file, "wmv") || isFileWithExtenstion(file, "mp4");
-    }
-
-    public static boolean isAudioFile(final Path file) {
-        return isFileWithExtenstion(file, "mp3");
-    }
-
-    public static boolean isEbookFile(final Path file) {
-        return isFileWithExtenstion(file, "epub");
-    }
-
-    public static boolean isFile(final Path file) {
-        return Files.isRegularFile(file);
-    }
-
-    public static boolean isDirectory(final Path file) {
-        return Files.isDirectory(file);
-    }
-
-    public static boolean isFileWithExtenstion(final Path file, final String ext) {
-        if (!isFile(file)) {
-            return false;
-        }
-        final String name = getFileName(file).toLowerCase();
-        return name.endsWith("." + ext.toLowerCase());
-    }
-
-    public static String getExtension(final Path file) {
-        final String name = getFileName(file);
-        final Matcher matcher = EXTENSION_PATTERN.matcher(name);
-        if (!matcher.find()) {
-            return null;
-        }
-        return matcher.group(1);
-    }
-
-    public static String getFileName(final Path file) {
-        return file.getFileName().toString();
-    }
-
-    public static String getAbsolutePath(final Path p) {
-        return p.toAbsolutePath().toString();
-    }
-}
+package com.element54.utils.file;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class PathUtils {
+    private static final String URI_SCHEME = "file:";
+    private static final Pattern EXTENSION_PATTERN = Pattern.compile("\\.(\\w+)\\z");
+    private static final Set<String> VIDEO_EXTENSIONS = extensions("avi", "mpg", "mkv", "ts", "xvid", "divx", "wmv",
+            "mp4");
+    private static final Set<String> AUDIO_EXTENSIONS = extensions("mp3", "flac", "ogg", "oga", "opus", "m4a",
+            "m4b");
+    private static final Set<String> EBOOK_EXTENSIONS = extensions("epub");
+
+    public static boolean isMediaFile(final Path file) {
+        if (!isFile(file)) {
+            return false;
+        }
+        final String name = getFileName(file);
+        return hasExtension(name, VIDEO_EXTENSIONS) || hasExtension(name, AUDIO_EXTENSIONS)
+                || hasExtension(name, EBOOK_EXTENSIONS);
+    }
+
+    public static boolean isVideoFile(final Path file) {
+        return isFile(file) && isVideoFileName(getFileName(file));
+    }
+
+    public static boolean isAudioFile(final Path file) {
+        return isFile(file) && isAudioFileName(getFileName(file));
+    }
+
+    public static boolean isEbookFile(final Path file) {
+        return isFile(file) && hasExtension(getFileName(file), EBOOK_EXTENSIONS);
+    }
+
+    public static boolean isVideoFileName(final String name) {
+        return hasExtension(name, VIDEO_EXTENSIONS);
+    }
+
+    public static boolean isAudioFileName(final String name) {
+        return hasExtension(name, AUDIO_EXTENSIONS);
+    }
+
+    public static boolean isFile(final Path file) {
+        return Files.isRegularFile(file);
+    }
+
+    public static boolean isDirectory(final Path file) {
+        return Files.isDirectory(file);
+    }
+
+    public static boolean isFileWithExtenstion(final Path file, final String ext) {
+        if (!isFile(file)) {
+            return false;
+        }
+        final String name = getFileName(file).toLowerCase();
+        return name.endsWith("." + ext.toLowerCase());
+    }
+
+    private static boolean hasExtension(final String name, final Set<String> extensions) {
+        final int dot = name.lastIndexOf('.');
+        if (dot < 0) {
+            return false;
+        }
+        return extensions.contains(name.substring(dot + 1).toLowerCase());
+    }
+
+    private static Set<String> extensions(final String... extensions) {
+        return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(extensions)));
+    }
+
+    public static String getExtension(final Path file) {
+        final String name = getFileName(file);
+        final Matcher matcher = EXTENSION_PATTERN.matcher(name);
+        if (!matcher.find()) {
+            return null;
+        }
+        return matcher.group(1);
+    }
+
+    public static String getFileName(final Path file) {
+        return file.getFileName().toString();
+    }
+
+    public static String getAbsolutePath(final Path p) {
+        return p.toAbsolutePath().toString();
+    }
+
+    // An absolute path as a string that toPath turns back into the same path,
+    // for temporary files. Names the platform encoding cannot represent,
+    // which toString would mangle, are stored as file uris; toUri keeps their
+    // bytes but stats the file, so only those names pay for it.
+    public static String toName(final Path p) {
+        final Path absolute = p.toAbsolutePath();
+        final String name = absolute.toString();
+        try {
+            if (!name.startsWith(URI_SCHEME) && absolute.getFileSystem().getPath(name).equals(absolute)) {
+                return name;
+            }
+        } catch (final InvalidPathException e) {
+            // not representable
+        }
+        return absolute.toUri().toString();
+    }
+
+    public static Path toPath(final String name) {
+        return name.startsWith(URI_SCHEME) ? Paths.get(URI.create(name)) : Paths.get(name);
+    }
+}
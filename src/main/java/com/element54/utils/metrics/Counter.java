@@ -0,0 +1,20 @@
+package com.element54.utils.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class Counter {
+
+    private final LongAdder value = new LongAdder();
+
+    public void increment() {
+        this.value.increment();
+    }
+
+    public void add(final long n) {
+        this.value.add(n);
+    }
+
+    public long get() {
+        return this.value.sum();
+    }
+}
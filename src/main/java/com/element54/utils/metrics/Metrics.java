@@ -0,0 +1,180 @@
+package com.element54.utils.metrics;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Counters and timers of one run. The run is split into named phases, like
+// scanning and moving, which are timed separately so that waiting for the
+// user between them counts for none. A counter's rate is taken over the wall
+// time of the phase it was created in, or over all phases if it was created
+// outside of one.
+public class Metrics {
+
+    private final long started = System.nanoTime();
+    private final Map<String, Counter> counters = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, Timer> timers = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, String> counterPhases = Collections.synchronizedMap(new LinkedHashMap<>());
+    // guarded by phases
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private String phase = null;
+    private long phaseStarted;
+
+    public Counter counter(final String name) {
+        return this.counters.computeIfAbsent(name, k -> {
+            final String current = getPhase();
+            if (current != null) {
+                this.counterPhases.put(k, current);
+            }
+            return new Counter();
+        });
+    }
+
+    // stops the running phase, a phase started again adds up
+    public void startPhase(final String name) {
+        synchronized (this.phases) {
+            stopPhase();
+            this.phase = name;
+            this.phaseStarted = System.nanoTime();
+            this.phases.putIfAbsent(name, 0L);
+        }
+    }
+
+    public void stopPhase() {
+        synchronized (this.phases) {
+            if (this.phase != null) {
+                this.phases.put(this.phase, this.phases.get(this.phase) + System.nanoTime() - this.phaseStarted);
+                this.phase = null;
+            }
+        }
+    }
+
+    public String getPhase() {
+        synchronized (this.phases) {
+            return this.phase;
+        }
+    }
+
+    // wall time of the phase so far, the running one included
+    public long getPhaseNanos(final String name) {
+        synchronized (this.phases) {
+            final Long nanos = this.phases.get(name);
+            if (nanos == null) {
+                return 0;
+            }
+            return name.equals(this.phase) ? nanos + System.nanoTime() - this.phaseStarted : nanos;
+        }
+    }
+
+    // time spent in phases, the elapsed time if no phase was started
+    public long getActiveNanos() {
+        synchronized (this.phases) {
+            if (this.phases.isEmpty()) {
+                return getElapsedNanos();
+            }
+            long nanos = 0;
+            for (final String name : this.phases.keySet()) {
+                nanos += getPhaseNanos(name);
+            }
+            return nanos;
+        }
+    }
+
+    private List<String> phaseNames() {
+        synchronized (this.phases) {
+            return new ArrayList<>(this.phases.keySet());
+        }
+    }
+
+    public Timer timer(final String name) {
+        return this.timers.computeIfAbsent(name, k -> new Timer());
+    }
+
+    public long getElapsedNanos() {
+        return System.nanoTime() - this.started;
+    }
+
+    // counter per second of its phase
+    public double rate(final String counter) {
+        final String phase = this.counterPhases.get(counter);
+        final double seconds = (phase == null ? getActiveNanos() : getPhaseNanos(phase)) / 1e9;
+        return seconds <= 0 ? 0 : counter(counter).get() / seconds;
+    }
+
+    public void printSummary(final PrintStream out) {
+        final StringBuilder elapsed = new StringBuilder(String.format("Elapsed: %.1f s", getElapsedNanos() / 1e9));
+        String sep = " (";
+        for (final String name : phaseNames()) {
+            elapsed.append(sep).append(String.format("%s %.1f s", name, getPhaseNanos(name) / 1e9));
+            sep = ", ";
+        }
+        out.println(sep.equals(", ") ? elapsed.append(")") : elapsed);
+        for (final Map.Entry<String, Counter> e : entries(this.counters)) {
+            out.println(String.format("  %-16s %12d  (%.1f/s)", e.getKey(), e.getValue().get(), rate(e.getKey())));
+        }
+        for (final Map.Entry<String, Timer> e : entries(this.timers)) {
+            final Timer t = e.getValue();
+            if (t.getCount() == 0) {
+                continue;
+            }
+            out.println(String.format("  %-16s %12d  total %.1f s, mean %d us, p50 <%d us, p99 <%d us, max %d us",
+                    e.getKey(), t.getCount(), t.getTotalNanos() / 1e9, TimeUnit.NANOSECONDS.toMicros(t.getMeanNanos()),
+                    t.getPercentileMicros(0.5), t.getPercentileMicros(0.99),
+                    TimeUnit.NANOSECONDS.toMicros(t.getMaxNanos())));
+        }
+    }
+
+    public void writeJson(final Path file) throws IOException {
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            w.write("{\"elapsedNanos\":" + getElapsedNanos() + ",\"phases\":{");
+            String sep = "";
+            for (final String name : phaseNames()) {
+                w.write(sep + quote(name) + ":{\"nanos\":" + getPhaseNanos(name) + "}");
+                sep = ",";
+            }
+            w.write("},\"counters\":{");
+            sep = "";
+            for (final Map.Entry<String, Counter> e : entries(this.counters)) {
+                w.write(sep + quote(e.getKey()) + ":{\"value\":" + e.getValue().get() + ",\"perSecond\":"
+                        + String.format(Locale.ROOT, "%.3f", rate(e.getKey())) + "}");
+                sep = ",";
+            }
+            w.write("},\"timers\":{");
+            sep = "";
+            for (final Map.Entry<String, Timer> e : entries(this.timers)) {
+                final Timer t = e.getValue();
+                w.write(sep + quote(e.getKey()) + ":{\"count\":" + t.getCount() + ",\"totalNanos\":"
+                        + t.getTotalNanos() + ",\"meanNanos\":" + t.getMeanNanos() + ",\"maxNanos\":"
+                        + t.getMaxNanos() + ",\"p50Micros\":" + t.getPercentileMicros(0.5) + ",\"p90Micros\":"
+                        + t.getPercentileMicros(0.9) + ",\"p99Micros\":" + t.getPercentileMicros(0.99)
+                        + ",\"bucketsMicrosLog2\":[");
+                for (int i = 0; i < Timer.BUCKETS; i++) {
+                    w.write((i == 0 ? "" : ",") + t.getBucket(i));
+                }
+                w.write("]}");
+                sep = ",";
+            }
+            w.write("}}\n");
+        }
+    }
+
+    private static <T> List<Map.Entry<String, T>> entries(final Map<String, T> map) {
+        synchronized (map) {
+            return new ArrayList<>(map.entrySet());
+        }
+    }
+
+    private static String quote(final String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
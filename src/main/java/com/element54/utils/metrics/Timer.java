@@ -0,0 +1,78 @@
+package com.element54.utils.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency histogram with power of two buckets: bucket i counts durations
+// below 2^(i+1) microseconds (and at least 2^i, except for bucket 0).
+public class Timer {
+    public static final int BUCKETS = 32;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void stop(final long start) {
+        record(System.nanoTime() - start);
+    }
+
+    public void record(final long nanos) {
+        this.count.increment();
+        this.total.add(nanos);
+        long m = this.max.get();
+        while (nanos > m && !this.max.compareAndSet(m, nanos)) {
+            m = this.max.get();
+        }
+        final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        final int bucket = micros <= 1 ? 0 : Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+        this.buckets.incrementAndGet(bucket);
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    public long getTotalNanos() {
+        return this.total.sum();
+    }
+
+    public long getMaxNanos() {
+        return this.max.get();
+    }
+
+    public long getMeanNanos() {
+        final long c = getCount();
+        return c == 0 ? 0 : getTotalNanos() / c;
+    }
+
+    public long getBucket(final int i) {
+        return this.buckets.get(i);
+    }
+
+    // upper bound of the bucket holding the given quantile, in microseconds
+    public long getPercentileMicros(final double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += this.buckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.buckets.get(i);
+            if (seen >= rank) {
+                return 1L << (i + 1);
+            }
+        }
+        return 1L << BUCKETS;
+    }
+}
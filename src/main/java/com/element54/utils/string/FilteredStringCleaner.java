@@ -1,81 +1,66 @@
 package com.element54.utils.string;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
-
 public class FilteredStringCleaner implements StringCleaner {
     protected static final char[] ALLOWED_CHARS = "abcdefghijklmnopqrstuvwxyz0123456789_".toCharArray();
+    protected static final String REPLACE_FROM = "äöüß -()/.éèê";
+    protected static final String REPLACE_TO = "aous______eee";
+
+    // maps every char below 256 to its replacement, 0 drops the char; all
+    // chars above are dropped
+    private static final char[] TABLE = new char[256];
+    static {
+        for (final char c : ALLOWED_CHARS) {
+            TABLE[c] = c;
+        }
+        for (int i = 0; i < REPLACE_FROM.length(); i++) {
+            TABLE[REPLACE_FROM.charAt(i)] = REPLACE_TO.charAt(i);
+        }
+    }
+
     protected final int max;
-    protected Map<String, String> replaceMap = new HashMap<String, String>();
+    private final ThreadLocal<StringBuilder> buffer = ThreadLocal.withInitial(() -> new StringBuilder(64));
 
     public FilteredStringCleaner(final int max) {
         super();
         this.max = max;
-        this.replaceMap.put("ä", "a");
-        this.replaceMap.put("ö", "o");
-        this.replaceMap.put("ü", "u");
-        this.replaceMap.put("ß", "s");
-        this.replaceMap.put(" ", "_");
-        this.replaceMap.put("-", "_");
-        this.replaceMap.put("\\(", "_");
-        this.replaceMap.put("\\)", "_");
-        this.replaceMap.put("\\/", "_");
-        this.replaceMap.put("\\.", "_");
-
-        this.replaceMap.put("é", "e");
-        this.replaceMap.put("è", "e");
-        this.replaceMap.put("ê", "e");
     }
 
     @Override
-    public String purge(String name) {
-        name = name.toLowerCase().trim();
-        for (final Entry<String, String> e : this.replaceMap.entrySet()) {
-            final String k = e.getKey();
-            final String v = e.getValue();
-            name = name.replaceAll(k, v);
-        }
-
-        final StringBuffer buf = new StringBuffer(name);
-        for (int i = 0; i < buf.length(); i++) {
-            final char current = buf.charAt(i);
-            if (!isCharAllowed(current)) {
-                buf.deleteCharAt(i);
-                i--;
+    public String purge(final String name) {
+        final String lower = name.toLowerCase();
+        final StringBuilder buf = this.buffer.get();
+        buf.setLength(0);
+        for (int i = 0; i < lower.length(); i++) {
+            final char c = lower.charAt(i);
+            final char r = c < TABLE.length ? TABLE[c] : 0;
+            if (r == 0) {
+                continue;
             }
+            // collapse runs of '_' and drop leading ones
+            if (r == '_' && (buf.length() == 0 || buf.charAt(buf.length() - 1) == '_')) {
+                continue;
+            }
+            buf.append(r);
         }
-
-        String str = buf.toString().trim();
-        str = str.replaceAll("_+", "_");
-        str = specialTrim(str);
-        if (this.max <= 0) {
-            return str;
-        }
-        if (str.length() > this.max) {
-            str = str.substring(0, this.max);
+        trimEnd(buf);
+        if (this.max > 0 && buf.length() > this.max) {
+            buf.setLength(this.max);
+            trimEnd(buf);
         }
-        str = specialTrim(str);
-        return str;
+        return buf.toString();
     }
 
+    // purge reads the table directly, overriding this does not change it
     protected boolean isCharAllowed(final char c) {
-        for (int i = 0; i < ALLOWED_CHARS.length; i++) {
-            if (ALLOWED_CHARS[i] == c) {
-                return true;
-            }
-        }
-        return false;
+        return c < TABLE.length && TABLE[c] == c;
     }
 
-    protected String specialTrim(String str) {
-        while (str.startsWith("_")) {
-            str = str.substring(1);
-        }
-        while (str.endsWith("_")) {
-            str = str.substring(0, str.length() - 1);
+    private static void trimEnd(final StringBuilder buf) {
+        int length = buf.length();
+        while (length > 0 && buf.charAt(length - 1) == '_') {
+            length--;
         }
-        return str;
+        buf.setLength(length);
     }
 
 }
@@ -0,0 +1,137 @@
+package com.element54.sorter.layout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.element54.sorter.SorterService;
+import com.element54.sorter.SorterServiceException;
+import com.element54.sorter.StructuredSorterService;
+import com.element54.sorter.tags.AudioTag;
+import com.element54.sorter.tags.impl.BasicAudioTag;
+import com.element54.utils.file.FileNameCleaner;
+
+public class LayoutTest {
+    private static final Path FILE = Paths.get("in", "file.mp3");
+    private static final Path OUT = Paths.get("out");
+    private static final Layout DEFAULT = Layout.parse(Layout.DEFAULT);
+
+    // names are kept as they are, the cleaner would drop the signs and
+    // separators the padding is checked by
+    private static final FileNameCleaner RAW = (parent, name, ext) -> parent
+            .resolve(ext == null ? name : name + "." + ext);
+
+    private static final String[] TEXTS = { null, "", "A", "Some Name", "a/b" };
+    private static final Integer[] NUMBERS = { null, Integer.MIN_VALUE, -100, -5, -1, 0, 1, 9, 10, 99, 100, 1000,
+            Integer.MAX_VALUE };
+    private static final String[] CUSTOMS = { "AUDIOBOOK", "SINGLE", "NOYEAR", "COMPILATIONNAME",
+            "COMPILATIONGROUP" };
+
+    @Test
+    public void edgeCasesMatchStructuredService() {
+        for (final Integer number : NUMBERS) {
+            for (final String custom : CUSTOMS) {
+                for (final boolean compilation : new boolean[] { false, true }) {
+                    final Map<String, String> customs = new HashMap<>();
+                    customs.put(custom, "X");
+                    assertSame(new BasicAudioTag(FILE, "Artist", "Album Artist", "Album", "Title", number, number,
+                            number, compilation, customs));
+                    assertSame(new BasicAudioTag(FILE, "Artist", "Album Artist", "Album", "Title", 2001, number,
+                            null, compilation, customs));
+                }
+            }
+        }
+    }
+
+    // every combination of missing fields, the first one missing in the
+    // order the structured service checks them is reported
+    @Test
+    public void missingFieldsMatchStructuredService() {
+        for (int mask = 0; mask < 1 << 7; mask++) {
+            for (final String custom : CUSTOMS) {
+                for (final boolean compilation : new boolean[] { false, true }) {
+                    final Map<String, String> customs = new HashMap<>();
+                    customs.put(custom, "X");
+                    assertSame(new BasicAudioTag(FILE, (mask & 1) != 0 ? "Artist" : null,
+                            (mask & 2) != 0 ? "Album Artist" : null, (mask & 4) != 0 ? "Album" : null,
+                            (mask & 8) != 0 ? "Title" : null, (mask & 16) != 0 ? 1999 : null,
+                            (mask & 32) != 0 ? 7 : null, (mask & 64) != 0 ? 2 : null, compilation, customs));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void randomTagsMatchStructuredService() {
+        final Random random = new Random(54);
+        for (int i = 0; i < 20000; i++) {
+            final Map<String, String> customs = new HashMap<>();
+            for (final String custom : CUSTOMS) {
+                if (random.nextInt(4) == 0) {
+                    customs.put(custom, pick(random, TEXTS));
+                }
+            }
+            assertSame(new BasicAudioTag(FILE, pick(random, TEXTS), pick(random, TEXTS), pick(random, TEXTS),
+                    pick(random, TEXTS), pick(random, NUMBERS), pick(random, NUMBERS), pick(random, NUMBERS),
+                    random.nextBoolean(), customs));
+        }
+    }
+
+    @Test
+    public void invalidRulesAreRejected() {
+        final String[] invalid = { "", "# only a comment", "music", "music => ", "music => A//{title}",
+                "music => A/{title", "music => A/title}", "music => {title:0x}", "music => {title:00}",
+                "music => {nofield}", "music require nofield => {title}", "nofield => {title}" };
+        for (final String text : invalid) {
+            try {
+                Layout.parse(text);
+                fail("accepted " + text);
+            } catch (final IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void placeholders() throws SorterServiceException {
+        final Map<String, String> customs = new HashMap<>();
+        customs.put("GROUP", "G");
+        final AudioTag tag = new BasicAudioTag(FILE, "Artist", null, "Album", "Title", null, -7, 3, false,
+                customs);
+        final Layout layout = Layout.parse("# comment\n\nmusic => {custom:GROUP}/{year? }{album}"
+                + "/{disk?-}{track:000} {albumArtist|Unknown}");
+        assertEquals(Paths.get("out", "G", "Album", "3--007 Unknown.mp3"),
+                new TemplateSorterService(file -> tag, RAW, layout).getFile(FILE, OUT));
+    }
+
+    private static void assertSame(final AudioTag tag) {
+        final SorterService expected = new StructuredSorterService(file -> tag, RAW);
+        final SorterService actual = new TemplateSorterService(file -> tag, RAW, DEFAULT);
+        assertEquals(describe(tag), result(expected), result(actual));
+    }
+
+    private static String result(final SorterService service) {
+        try {
+            return service.getFile(FILE, OUT).toString();
+        } catch (final SorterServiceException e) {
+            return "FAILED: " + e.getMessage();
+        }
+    }
+
+    private static String describe(final AudioTag tag) {
+        return tag.getArtist() + ", " + tag.getAlbumArtist() + ", " + tag.getAlbum() + ", " + tag.getTitle() + ", "
+                + tag.getYear() + ", " + tag.getTrack() + ", " + tag.getDisk() + ", " + tag.isCompilation() + ", "
+                + tag.getCustomKeys();
+    }
+
+    private static <T> T pick(final Random random, final T[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
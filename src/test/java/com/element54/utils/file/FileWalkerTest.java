@@ -0,0 +1,48 @@
+package com.element54.utils.file;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.element54.utils.metrics.Timer;
+
+public class FileWalkerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void danglingLinkIsVisitedAsLink() throws IOException {
+        final Path root = this.folder.getRoot().toPath();
+        Files.write(root.resolve("a.mp3"), new byte[] { 1 });
+        Files.createSymbolicLink(root.resolve("b.mp3"), root.resolve("missing.mp3"));
+        Files.createDirectory(root.resolve("c"));
+        Files.write(root.resolve("c").resolve("d.mp3"), new byte[] { 2 });
+        final List<String> expected = Arrays.asList("a.mp3", "b.mp3 link", "c/d.mp3");
+        // 1 spills every entry of a folder
+        for (final int maxEntries : new int[] { 1, FileWalker.DEFAULT_MAX_ENTRIES }) {
+            assertEquals("sorted " + maxEntries, expected, walk(new FileWalker(true, new Timer(), maxEntries), root));
+        }
+        final List<String> unsorted = walk(new FileWalker(false), root);
+        Collections.sort(unsorted);
+        assertEquals("unsorted", expected, unsorted);
+    }
+
+    private static List<String> walk(final FileWalker walker, final Path root) throws IOException {
+        final List<String> visited = new ArrayList<>();
+        walker.walk(root, (file, attrs) -> {
+            final String name = root.relativize(file).toString().replace('\\', '/');
+            visited.add(attrs.isRegularFile() ? name : name + " link");
+        });
+        return visited;
+    }
+}
@@ -0,0 +1,145 @@
+package com.element54.utils.string;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FilteredStringCleanerTest {
+    private static final int[] MAX = { 0, -1, 1, 2, 5, 30 };
+
+    private static final String[] EDGE_CASES = { "", " ", "_", "___", " - ", "a", "A", "ÄÖÜ", "äöüß", "Straße",
+            "(foo) / bar.", "  Motörhead  ", "AC/DC - Back In Black (Remastered)", "é è ê É È Ê", "ñ ç å ø",
+            "\u0000\u001f\t\n\r", "日本語のアルバム", "Ελληνικά", "Русский", "🎵 music 🎶",
+            "\ud800", "\udc00", "a\ud800b\udc00c", "İstanbul", "ÿŸ", "123_456__789___",
+            "______________________________x", "x______________________________", "abcdefghijklmnopqrstuvwxyz_0123",
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZ 0123456789" };
+
+    // chars the random strings are made of: everything the cleaner keeps,
+    // replaces or drops, upper case variants of mapped umlauts and accents,
+    // latin-1 beyond them and chars outside latin-1
+    private static final String ALPHABET = "abcxyzABCXYZ0189_ -()/.äöüßÄÖÜéèêÉÈÊ!?&',;:[]{}\t\n\u0000\u007f"
+            + "àáâãåæçëìíîïñòóôõøùúûýÿÀÁÂÃÅÆÇÑØ ­µ×÷"
+            + "ĀİıŒŸẞ–’½ΩЖ日ﬁＡ";
+
+    @Test
+    public void edgeCasesMatchOldImplementation() {
+        for (final int max : MAX) {
+            final FilteredStringCleaner cleaner = new FilteredStringCleaner(max);
+            final OldFilteredStringCleaner old = new OldFilteredStringCleaner(max);
+            for (final String s : EDGE_CASES) {
+                assertEquals("max " + max + ": " + s, old.purge(s), cleaner.purge(s));
+            }
+        }
+    }
+
+    @Test
+    public void randomStringsMatchOldImplementation() {
+        final Random random = new Random(54);
+        for (final int max : MAX) {
+            final FilteredStringCleaner cleaner = new FilteredStringCleaner(max);
+            final OldFilteredStringCleaner old = new OldFilteredStringCleaner(max);
+            for (int i = 0; i < 20000; i++) {
+                final String s = randomString(random);
+                assertEquals("max " + max + ": " + s, old.purge(s), cleaner.purge(s));
+            }
+        }
+    }
+
+    private static String randomString(final Random random) {
+        final int length = random.nextInt(50);
+        final StringBuilder b = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            final int kind = random.nextInt(10);
+            if (kind == 0) {
+                // any char of the bmp, lone surrogates included
+                b.append((char) random.nextInt(0x10000));
+            } else if (kind == 1) {
+                b.appendCodePoint(0x10000 + random.nextInt(0x10ffff - 0x10000));
+            } else {
+                b.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+        }
+        return b.toString();
+    }
+
+    // the implementation before the single pass rewrite
+    private static class OldFilteredStringCleaner implements StringCleaner {
+        protected static final char[] ALLOWED_CHARS = "abcdefghijklmnopqrstuvwxyz0123456789_".toCharArray();
+        protected final int max;
+        protected Map<String, String> replaceMap = new HashMap<String, String>();
+
+        public OldFilteredStringCleaner(final int max) {
+            super();
+            this.max = max;
+            this.replaceMap.put("ä", "a");
+            this.replaceMap.put("ö", "o");
+            this.replaceMap.put("ü", "u");
+            this.replaceMap.put("ß", "s");
+            this.replaceMap.put(" ", "_");
+            this.replaceMap.put("-", "_");
+            this.replaceMap.put("\\(", "_");
+            this.replaceMap.put("\\)", "_");
+            this.replaceMap.put("\\/", "_");
+            this.replaceMap.put("\\.", "_");
+
+            this.replaceMap.put("é", "e");
+            this.replaceMap.put("è", "e");
+            this.replaceMap.put("ê", "e");
+        }
+
+        @Override
+        public String purge(String name) {
+            name = name.toLowerCase().trim();
+            for (final Entry<String, String> e : this.replaceMap.entrySet()) {
+                final String k = e.getKey();
+                final String v = e.getValue();
+                name = name.replaceAll(k, v);
+            }
+
+            final StringBuffer buf = new StringBuffer(name);
+            for (int i = 0; i < buf.length(); i++) {
+                final char current = buf.charAt(i);
+                if (!isCharAllowed(current)) {
+                    buf.deleteCharAt(i);
+                    i--;
+                }
+            }
+
+            String str = buf.toString().trim();
+            str = str.replaceAll("_+", "_");
+            str = specialTrim(str);
+            if (this.max <= 0) {
+                return str;
+            }
+            if (str.length() > this.max) {
+                str = str.substring(0, this.max);
+            }
+            str = specialTrim(str);
+            return str;
+        }
+
+        protected boolean isCharAllowed(final char c) {
+            for (int i = 0; i < ALLOWED_CHARS.length; i++) {
+                if (ALLOWED_CHARS[i] == c) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        protected String specialTrim(String str) {
+            while (str.startsWith("_")) {
+                str = str.substring(1);
+            }
+            while (str.endsWith("_")) {
+                str = str.substring(0, str.length() - 1);
+            }
+            return str;
+        }
+    }
+}